@@ -0,0 +1,102 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static gitlet.Utils.*;
+
+/** Compares Java serialization of commits, which embed their whole snapshot,
+ *  with the binary commit format, which names its snapshot by a tree hash:
+ *  encode and decode latency. The encoded sizes are printed during setup.
+ *  @author Ziqi He
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommitFormatBenchmark {
+    /** Number of files tracked by the commit. */
+    @Param({"10", "1000", "10000"})
+    public int files;
+
+    /** The commit, decoded from the binary format. */
+    private Commit commit;
+
+    /** The same commit in the legacy form, with its snapshot as an index. */
+    private Commit legacyCommit;
+
+    /** The commit in the binary format. */
+    private byte[] binary;
+
+    /** The commit written with Java serialization. */
+    private byte[] serialized;
+
+    @Setup
+    public void setup() {
+        HashMap<String, String> stagingArea = new HashMap<>();
+        for (int i = 0; i < files; i += 1) {
+            String path = "src/main/java/gitlet/File" + i + ".java";
+            stagingArea.put(path, sha1(path));
+        }
+        Index index = new Index(stagingArea, new ArrayList<>(), new HashMap<>());
+
+        // Version 1 of the binary format still carries the snapshot, as legacy commits do.
+        Codec legacy = header(1);
+        index.encode(legacy, false);
+        legacyCommit = Commit.fromBytes(legacy.toByteArray());
+        serialized = serialize(legacyCommit);
+
+        Codec current = header(Commit.VERSION);
+        current.writeHash(sha1("tree"));
+        binary = current.toByteArray();
+        commit = Commit.fromBytes(binary);
+        System.out.printf("%n%d files: binary %d bytes, serialized %d bytes%n",
+                files, binary.length, serialized.length);
+    }
+
+    /** Starts encoding a commit with one parent in the given format VERSION. */
+    private static Codec header(int version) {
+        Codec codec = new Codec(Commit.TYPE, version);
+        codec.writeString("A commit message.");
+        codec.writeString("Ziqi He");
+        codec.writeString(Commit.getFormattedDate());
+        codec.writeVarint(1);
+        codec.writeHash(sha1("parent"));
+        return codec;
+    }
+
+    @Benchmark
+    public byte[] writeBinary() {
+        return commit.toBytes();
+    }
+
+    @Benchmark
+    public byte[] writeSerialized() {
+        return serialize(legacyCommit);
+    }
+
+    @Benchmark
+    public Commit readBinary() {
+        return Commit.fromBytes(binary);
+    }
+
+    @Benchmark
+    public Commit readSerialized() {
+        return deserialize(serialized, Commit.class);
+    }
+}
@@ -0,0 +1,145 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures the core commands on a repository built by SyntheticRepository:
+ *  add, commit, checkout of a file and of a branch, and status, each run
+ *  through Main.run as the daemon runs it, in a warm JVM with its caches;
+ *  and, in isolation, decoding a commit and hashing a file's contents.
+ *  Every benchmark gets a fresh repository in its own fork, since gitlet
+ *  fixes its repository when it is loaded. Commits sync their files;
+ *  add -jvmArgsAppend -Dgitlet.fsync=false to leave that out.
+ *  Run for example with
+ *    java -jar target/benchmarks.jar CoreOperations -p files=10000 -p fileSize=65536
+ *  @author Ziqi He
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoreOperationsBenchmark {
+    /** Number of files in the repository. */
+    @Param({"1000"})
+    public int files;
+
+    /** Number of commits after the initial commit. */
+    @Param({"100"})
+    public int commits;
+
+    /** Number of branches, counting master. */
+    @Param({"4"})
+    public int branches;
+
+    /** Size of each file in bytes. */
+    @Param({"4096"})
+    public int fileSize;
+
+    /** The repository, which is the working directory. */
+    private Path dir;
+
+    /** Standard output, which gitlet's messages are kept out of while measuring. */
+    private PrintStream stdout;
+
+    /** A tracked file, which add and commit change. */
+    private String file;
+
+    /** Two versions of the file, written in turn so every commit has a change. */
+    private byte[][] versions;
+
+    /** The hashes of all commits, in the order of the commit-graph. */
+    private String[] hashes;
+
+    /** Index of the next version, commit or branch to use. */
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("gitlet-bench");
+        List<String> paths = SyntheticRepository.build(dir, files, commits, branches, fileSize, 42);
+        file = paths.get(0);
+        Random random = new Random(7);
+        versions = new byte[][]{SyntheticRepository.contents(fileSize, random),
+            SyntheticRepository.contents(fileSize, random)};
+
+        CommitGraph graph = Repository.COMMIT_GRAPH;
+        hashes = new String[graph.size()];
+        for (int i = 0; i < hashes.length; i += 1) {
+            hashes[i] = graph.hashAt(i);
+        }
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        System.setOut(stdout);
+        SyntheticRepository.delete(dir);
+    }
+
+    @Benchmark
+    public void add() throws IOException {
+        Files.write(dir.resolve(file), versions[next++ % 2]);
+        Main.run(new String[]{"add", file});
+    }
+
+    @Benchmark
+    public void addAndCommit() throws IOException {
+        Files.write(dir.resolve(file), versions[next++ % 2]);
+        Main.run(new String[]{"add", file});
+        Main.run(new String[]{"commit", "Change " + file});
+    }
+
+    @Benchmark
+    public void checkoutFile() {
+        Main.run(new String[]{"checkout", "--", file});
+    }
+
+    @Benchmark
+    public void checkoutBranch() {
+        Main.run(new String[]{"checkout", SyntheticRepository.branchName(++next % branches)});
+    }
+
+    @Benchmark
+    public void status() {
+        Main.run(new String[]{"status"});
+    }
+
+    @Benchmark
+    public Commit readCommit() {
+        return Commit.readCommit(hashes[next++ % hashes.length]);
+    }
+
+    @Benchmark
+    public Commit decodeCommit() {
+        // Read and decoded from the object store, past the cache of decoded commits.
+        return Commit.fromBytes(Repository.OBJECT_STORE.read(hashes[next++ % hashes.length]));
+    }
+
+    @Benchmark
+    public String sha1() {
+        return Utils.sha1(versions[next++ % 2]);
+    }
+}
@@ -0,0 +1,99 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures the line diff on large generated files: splitting both versions
+ *  into lines and finding the changed lines with Diff.compare. The second
+ *  version is the first with lines deleted, inserted and replaced at random
+ *  places, so the cost can be seen to grow with the number of edits and
+ *  not with the square of the file length.
+ *  @author Ziqi He
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiffBenchmark {
+    /** Number of lines in the first version. */
+    @Param({"10000", "200000"})
+    public int lines;
+
+    /** Number of random edits made to get the second version. */
+    @Param({"10", "1000"})
+    public int edits;
+
+    /** The two versions of the file. */
+    private byte[] before;
+    private byte[] after;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        List<String> contents = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i += 1) {
+            contents.add(randomLine(random));
+        }
+        before = join(contents);
+        for (int i = 0; i < edits; i += 1) {
+            int at = random.nextInt(contents.size());
+            switch (random.nextInt(3)) {
+                case 0:
+                    contents.remove(at);
+                    break;
+                case 1:
+                    contents.add(at, randomLine(random));
+                    break;
+                default:
+                    contents.set(at, randomLine(random));
+                    break;
+            }
+        }
+        after = join(contents);
+    }
+
+    @Benchmark
+    public boolean[][] compare() {
+        return Diff.compare(new Diff.Lines(before), new Diff.Lines(after));
+    }
+
+    @Benchmark
+    public Diff.Lines splitLines() {
+        return new Diff.Lines(after);
+    }
+
+    /** Returns a line of source-like text, repeating now and then as real files do. */
+    private static String randomLine(Random random) {
+        if (random.nextInt(8) == 0) {
+            return "}";
+        }
+        return "    value" + random.nextInt(1000) + " = compute(" + random.nextInt(100000) + ");";
+    }
+
+    /** Joins LINES, each ended by a newline, into the bytes of a file. */
+    private static byte[] join(List<String> lines) {
+        StringBuilder contents = new StringBuilder();
+        for (String line : lines) {
+            contents.append(line).append('\n');
+        }
+        return contents.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
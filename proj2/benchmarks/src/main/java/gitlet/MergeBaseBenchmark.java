@@ -0,0 +1,150 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static gitlet.Utils.*;
+
+/** Measures finding the split point of two branch heads on a synthetic
+ *  commit-graph: the generation-ordered walk of CommitGraph.mergeBase against
+ *  a plain walk that collects every ancestor of one head before searching
+ *  from the other. The history grows branches at random, each commit extending
+ *  one branch and now and then merging in the head of another.
+ *  @author Ziqi He
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MergeBaseBenchmark {
+    /** Number of commits in the history. */
+    @Param({"100000"})
+    public int commits;
+
+    /** Number of branches growing at once. */
+    @Param({"4", "64"})
+    public int branches;
+
+    /** Chance that a commit merges in the head of another branch. */
+    private static final double MERGE_RATE = 0.02;
+
+    /** Number of head pairs cycled through by the benchmarks. */
+    private static final int PAIRS = 64;
+
+    /** Directory holding the commit-graph file. */
+    private File directory;
+
+    /** The synthetic commit-graph. */
+    private CommitGraph graph;
+
+    /** Pairs of branch heads to find the split point of. */
+    private int[][] pairs;
+
+    /** Index of the next pair. */
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("gitlet-graph").toFile();
+        graph = new CommitGraph(join(directory, "commit-graph"));
+
+        Random random = new Random(42);
+        int[] heads = new int[branches];
+        List<String> hashes = new ArrayList<>();
+        List<int[]> parents = new ArrayList<>();
+        List<Long> times = new ArrayList<>();
+        hashes.add(sha1("0"));
+        parents.add(new int[]{CommitGraph.NONE, CommitGraph.NONE});
+        times.add(0L);
+        for (int i = 1; i < commits; i += 1) {
+            int branch = random.nextInt(branches);
+            int second = CommitGraph.NONE;
+            if (random.nextDouble() < MERGE_RATE) {
+                second = heads[random.nextInt(branches)];
+                if (second == heads[branch]) {
+                    second = CommitGraph.NONE;
+                }
+            }
+            hashes.add(sha1(Integer.toString(i)));
+            parents.add(new int[]{heads[branch], second});
+            times.add((long) i);
+            heads[branch] = i;
+        }
+        graph.append(hashes, parents, times);
+
+        pairs = new int[PAIRS][];
+        for (int i = 0; i < PAIRS; i += 1) {
+            int first = heads[random.nextInt(branches)];
+            int second = heads[random.nextInt(branches)];
+            pairs[i] = new int[]{first, second};
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public int generationWalk() {
+        int[] pair = pairs[next++ % PAIRS];
+        return graph.mergeBase(pair[0], pair[1]);
+    }
+
+    @Benchmark
+    public int fullAncestorWalk() {
+        int[] pair = pairs[next++ % PAIRS];
+        BitSet ancestors = new BitSet(commits);
+        walk(pair[0], ancestors, null);
+        return walk(pair[1], new BitSet(commits), ancestors);
+    }
+
+    /** Visits the ancestors of START breadth-first, marking them in SEEN.
+     *  Returns the first one in STOP, or -1 after visiting them all. */
+    private int walk(int start, BitSet seen, BitSet stop) {
+        Deque<Integer> queue = new ArrayDeque<>();
+        queue.add(start);
+        seen.set(start);
+        while (!queue.isEmpty()) {
+            int position = queue.poll();
+            if (stop != null && stop.get(position)) {
+                return position;
+            }
+            for (int which = 0; which < 2; which += 1) {
+                int parent = graph.parent(position, which);
+                if (parent != CommitGraph.NONE && !seen.get(parent)) {
+                    seen.set(parent);
+                    queue.add(parent);
+                }
+            }
+        }
+        return CommitGraph.NONE;
+    }
+}
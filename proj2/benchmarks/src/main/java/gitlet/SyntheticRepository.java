@@ -0,0 +1,134 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/** Builds a repository of made-up history for benchmarks, through the same
+ *  commands a user would run. The first commit adds every file; each later
+ *  commit rewrites a few of them on one of the branches in turn, so the
+ *  branches share their start and then go apart. The repository is left on
+ *  master with a clean working directory.
+ *  Gitlet finds its repository from the working directory when Repository
+ *  is loaded, so build must be called before anything else in gitlet is used,
+ *  once per JVM, as JMH does with one fork per trial.
+ *  @author Ziqi He
+ */
+public class SyntheticRepository {
+    /** Number of directories the files are spread over. */
+    static final int DIRECTORIES = 16;
+
+    /** Fraction of the files each commit after the first rewrites. */
+    static final double CHANGED_FRACTION = 0.01;
+
+    /** Words the file contents are made of. */
+    private static final String[] WORDS = {"alpha", "beta", "gamma", "delta", "commit",
+        "tree", "blob", "branch", "merge", "index", "stage", "pack", "graph", "ref"};
+
+    /**
+     * Builds a repository in DIR, which becomes the working directory.
+     * @param dir an empty directory
+     * @param files number of files
+     * @param commits number of commits, counting the one adding the files
+     *                but not the initial commit
+     * @param branches number of branches, counting master
+     * @param fileSize size of each file in bytes
+     * @param seed seed of the random contents
+     * @return the path of every file, relative to DIR
+     */
+    public static List<String> build(Path dir, int files, int commits, int branches,
+                                     int fileSize, long seed) throws IOException {
+        System.setProperty("user.dir", dir.toString());
+        Random random = new Random(seed);
+        Main.run(new String[]{"init"});
+
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < files; i += 1) {
+            String path = "d" + (i % DIRECTORIES) + "/file" + i + ".txt";
+            paths.add(path);
+            write(dir.resolve(path), fileSize, random);
+        }
+        List<String> add = new ArrayList<>();
+        add.add("add");
+        for (int i = 0; i < Math.min(files, DIRECTORIES); i += 1) {
+            add.add("d" + i);
+        }
+        Main.run(add.toArray(new String[0]));
+        Main.run(new String[]{"commit", "Add " + files + " files"});
+
+        for (int i = 1; i < branches; i += 1) {
+            Main.run(new String[]{"branch", branchName(i)});
+        }
+        int changes = Math.max(1, (int) (files * CHANGED_FRACTION));
+        String current = branchName(0);
+        for (int c = 1; c < commits; c += 1) {
+            String branch = branchName(c % branches);
+            if (!branch.equals(current)) {
+                Main.run(new String[]{"checkout", branch});
+                current = branch;
+            }
+            add.clear();
+            add.add("add");
+            for (int i = 0; i < changes; i += 1) {
+                String path = paths.get(random.nextInt(files));
+                write(dir.resolve(path), fileSize, random);
+                add.add(path);
+            }
+            Main.run(add.toArray(new String[0]));
+            Main.run(new String[]{"commit", "Commit " + c});
+        }
+        if (!current.equals(branchName(0))) {
+            Main.run(new String[]{"checkout", branchName(0)});
+        }
+        return paths;
+    }
+
+    /**
+     * Gets the name of a branch of the built repository.
+     * @param i the number of the branch, 0 for master
+     * @return the name
+     */
+    public static String branchName(int i) {
+        return i == 0 ? "master" : "branch" + i;
+    }
+
+    /**
+     * Deletes a directory and everything under it.
+     * @param dir
+     */
+    public static void delete(Path dir) throws IOException {
+        try (var walk = Files.walk(dir)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /** Writes SIZE bytes of random lines of words to FILE, creating its directory. */
+    private static void write(Path file, int size, Random random) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, contents(size, random));
+    }
+
+    /**
+     * Makes SIZE bytes of random lines of words, like a text file.
+     * @param size
+     * @param random
+     * @return the contents
+     */
+    public static byte[] contents(int size, Random random) {
+        StringBuilder contents = new StringBuilder(size + 16);
+        while (contents.length() < size) {
+            int words = 1 + random.nextInt(10);
+            for (int i = 0; i < words; i += 1) {
+                contents.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            contents.append(random.nextInt(1000)).append('\n');
+        }
+        contents.setLength(size);
+        return contents.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
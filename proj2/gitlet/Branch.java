@@ -1,10 +1,22 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import static gitlet.Utils.*;
 
@@ -14,6 +26,10 @@ import static gitlet.Utils.*;
  * @author Ziqi He
  */
 public class Branch {
+    /** Largest number of threads writing files during a checkout. */
+    private static final int CHECKOUT_THREADS =
+            Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
     /**
      * Creates the default branch named master.
      * @param commitID hash value of default commit
@@ -21,7 +37,7 @@ public class Branch {
     public static void createDefaultBranch(String commitID) {
         // the name of default branch is master
         // the content in branch file is the hash value of a commit
-        writeContents(join(Repository.BRANCHES, "master"), commitID);
+        ObjectCache.writeRef(join(Repository.BRANCHES, "master"), commitID);
     }
 
     /**
@@ -30,12 +46,11 @@ public class Branch {
      * @param commitID
      */
     public static void createNewBranch(String branchName, String commitID) {
-        File branch = join(Repository.BRANCHES, branchName);
-        if (branch.exists()) {
+        if (exists(branchName)) {
             message("A branch with that name already exists");
             return;
         }
-        writeContents(join(Repository.BRANCHES, branchName), commitID);
+        ObjectCache.writeRef(refFile(branchName), commitID);
     }
 
     /**
@@ -44,8 +59,7 @@ public class Branch {
      * @param branchName
      */
     public static void removeBranch(String branchName) {
-        File branchToRemove = join(Repository.BRANCHES, branchName);
-        if (!branchToRemove.exists()) {
+        if (!exists(branchName)) {
             message("A branch with that name does not exist.");
             return;
         }
@@ -54,7 +68,15 @@ public class Branch {
             return;
         }
 
-        branchToRemove.delete();
+        // The packed ref goes first, so a crash never leaves the packed ref uncovered.
+        TreeMap<String, String> packed = Repository.PACKED_REFS.readAll();
+        if (packed.remove(branchName) != null) {
+            Repository.PACKED_REFS.write(packed);
+        }
+        File branchToRemove = refFile(branchName);
+        if (branchToRemove.isFile()) {
+            ObjectCache.deleteRef(branchToRemove);
+        }
     }
 
     /**
@@ -63,7 +85,7 @@ public class Branch {
      * @param commitID hash value of the last commit
      */
     public static void updateBranchPointer(String branchName, String commitID) {
-        writeContents(join(Repository.BRANCHES, branchName), commitID);
+        ObjectCache.writeRef(refFile(branchName), commitID);
     }
 
     /**
@@ -72,7 +94,76 @@ public class Branch {
      * @return the hash value of last commit
      */
     public static String getLastCommit(String branchName) {
-        return readContentsAsString(join(Repository.BRANCHES, branchName));
+        // A loose ref overrides the packed ref of the same branch.
+        String commitID = ObjectCache.readRef(refFile(branchName));
+        return commitID != null ? commitID : Repository.PACKED_REFS.find(branchName);
+    }
+
+    /**
+     * Gets the loose ref of a branch. A branch named [remote name]/[branch name]
+     * is one fetched from a remote, and its ref is kept apart from local branches.
+     * @param branchName
+     * @return the ref file, which may not exist
+     */
+    public static File refFile(String branchName) {
+        if (branchName.contains("/")) {
+            return join(Repository.REMOTE_REFS, branchName);
+        }
+        return join(Repository.BRANCHES, branchName);
+    }
+
+    /**
+     * Checks whether a branch exists, as a loose or a packed ref.
+     * @param branchName
+     * @return true if the branch exists
+     */
+    public static boolean exists(String branchName) {
+        return getLastCommit(branchName) != null;
+    }
+
+    /**
+     * Lists all branches, loose and packed.
+     * @return the names of the branches, in order
+     */
+    public static List<String> listBranches() {
+        TreeSet<String> branches = new TreeSet<>(Repository.PACKED_REFS.readAll().keySet());
+        List<String> loose = plainFilenamesIn(Repository.BRANCHES);
+        if (loose != null) {
+            branches.addAll(loose);
+        }
+        // Branches fetched from remotes, one directory per remote.
+        File[] remotes = Repository.REMOTE_REFS.listFiles(File::isDirectory);
+        if (remotes != null) {
+            for (File remote : remotes) {
+                for (String branchName : plainFilenamesIn(remote)) {
+                    branches.add(remote.getName() + "/" + branchName);
+                }
+            }
+        }
+        return new ArrayList<>(branches);
+    }
+
+    /**
+     * Handles command gitlet pack-refs.
+     * Moves the refs of all branches into the packed-refs file and deletes
+     * their loose refs. The packed-refs file is written first, so a crash in
+     * between leaves loose refs that agree with it.
+     * @return the number of branches packed
+     */
+    public static int packRefs() {
+        TreeMap<String, String> branches = Repository.PACKED_REFS.readAll();
+        List<String> loose = plainFilenamesIn(Repository.BRANCHES);
+        if (loose == null) {
+            loose = new ArrayList<>();
+        }
+        for (String branchName : loose) {
+            branches.put(branchName, ObjectCache.readRef(join(Repository.BRANCHES, branchName)));
+        }
+        Repository.PACKED_REFS.write(branches);
+        for (String branchName : loose) {
+            ObjectCache.deleteRef(join(Repository.BRANCHES, branchName));
+        }
+        return branches.size();
     }
 
     /**
@@ -80,7 +171,15 @@ public class Branch {
      * @return the branch name
      */
     public static String getCurrentBranch() {
-        return readContentsAsString(Repository.HEAD);
+        return ObjectCache.readRef(Repository.HEAD);
+    }
+
+    /**
+     * Makes the given branch the current branch.
+     * @param branchName
+     */
+    public static void setCurrentBranch(String branchName) {
+        ObjectCache.writeRef(Repository.HEAD, branchName);
     }
 
     /**
@@ -88,11 +187,8 @@ public class Branch {
      * @param branchName
      */
     public static void checkoutBranch(String branchName) {
-        File currentBranch = join(Repository.BRANCHES, Branch.getCurrentBranch());
-        File branchCheckoutTo = join(Repository.BRANCHES, branchName);
-
         // If no branch with that name exists.
-        if (!currentBranch.exists()) {
+        if (!exists(branchName)) {
             System.out.println("No such branch exists.");
             return;
         }
@@ -103,44 +199,139 @@ public class Branch {
             return;
         }
 
-        Commit currentCommit = Commit.readCommit(readContentsAsString(currentBranch));
-        Commit commitCheckoutTo = Commit.readCommit(readContentsAsString(branchCheckoutTo));
+        Commit currentCommit = Commit.readCommit(getLastCommit(getCurrentBranch()));
+        Commit commitCheckoutTo = Commit.readCommit(getLastCommit(branchName));
+        if (!checkoutCommit(currentCommit, commitCheckoutTo)) {
+            return;
+        }
+
+        // the given branch is now considered the current branch (HEAD)
+        setCurrentBranch(branchName);
+    }
+
+    /**
+     * Replaces the files of one commit in the working directory with the files of another,
+     * and clears the staging area.
+     * Only the files whose blobs differ between the two commits are touched, together
+     * with any file of the commit that the stat cache cannot show to be unchanged in the
+     * working directory, so the cost of a checkout grows with the size of the difference,
+     * not of the tree.
+     * The files to write are copied from the object store on a bounded pool of threads.
+     * @param currentCommit the commit the working directory is at
+     * @param commitCheckoutTo the commit to check out
+     * @return false if an untracked file is in the way, in which case nothing is changed
+     */
+    static boolean checkoutCommit(Commit currentCommit, Commit commitCheckoutTo) {
         Index stagingArea = Index.fromFile();
-        Index indexCheckoutTo = commitCheckoutTo.getIndex();
-        Index indexCurrentCommit = currentCommit.getIndex();
-
-        // If a working file is untracked in the current branch and would be overwritten by the checkout.
-        List<String> files = plainFilenamesIn(Repository.CWD);
-        for (String file : files) {
-            if (
-                    !indexCurrentCommit.stagingArea.containsKey(file)
-                    // && indexCheckoutTo.stagingArea.containsKey(file)
-            ) {
-                System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                return;
+        Map<String, String> filesCheckoutTo = commitCheckoutTo.getTrackedFiles();
+        Map<String, String> filesCurrentCommit = currentCommit.getTrackedFiles();
+
+        // Diff the two snapshots.
+        Map<String, String> filesToWrite = new HashMap<>();
+        for (Map.Entry<String, String> entry : filesCheckoutTo.entrySet()) {
+            String fileName = entry.getKey();
+            String hashInCurrentCommit = filesCurrentCommit.get(fileName);
+            if (hashInCurrentCommit == null) {
+                // If a working file is untracked in the current branch and would be overwritten by the checkout.
+                if (isInTheWay(fileName, filesCurrentCommit)) {
+                    System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
+                    return false;
+                }
+                filesToWrite.put(fileName, entry.getValue());
+            } else if (!hashInCurrentCommit.equals(entry.getValue())) {
+                filesToWrite.put(fileName, entry.getValue());
+            } else if (!entry.getValue().equals(
+                    stagingArea.getCachedHash(fileName, join(Repository.CWD, fileName)))) {
+                // The same in both commits, but deleted or changed in the working directory,
+                // or not known to be unchanged: it is restored, as every tracked file is.
+                filesToWrite.put(fileName, entry.getValue());
             }
         }
 
-        // Remove all files.
         // All the files that are tacked in the current branch
         // but are not present in the check-out branch are deleted.
-        for (String file : files) {
-            restrictedDelete(join(Repository.CWD, file));
+        for (String fileName : filesCurrentCommit.keySet()) {
+            if (!filesCheckoutTo.containsKey(fileName)) {
+                Repository.deleteWorkingFile(fileName);
+                stagingArea.statCache.remove(fileName);
+            }
         }
 
-        // Takes all files in the head commit of the given branch, and puts them in the working directory.
         // Overrides the versions of the files that are already there if they exist.
-        for (Map.Entry<String, String> entry : indexCheckoutTo.stagingArea.entrySet()) {
-            String fileName = entry.getKey();
-            String hashOfFile = entry.getValue();
-            String[] blobPath = Repository.getBlobPath(hashOfFile);
-            writeContents(join(Repository.CWD, fileName), readContents(join(Repository.OBJECTS, blobPath[0], blobPath[1])));
-        }
+        // The stat data of each written file is kept, so status need not hash it again.
+        stagingArea.statCache.putAll(writeFiles(filesToWrite));
+
         // The staging area is cleared.
         stagingArea.clearIndex();
-        stagingArea.writeIndex();
+        return true;
+    }
 
-        // the given branch is now considered the current branch (HEAD)
-        writeContents(Repository.HEAD, branchName);
+    /**
+     * Checks whether writing a file of the commit being checked out would overwrite
+     * an untracked file. A directory where the file goes is only in the way if it
+     * holds an untracked file, since the tracked ones are deleted first, and so is
+     * an untracked file where one of its directories goes.
+     * @param fileName path of the file to write
+     * @param trackedFiles the files of the current commit
+     * @return true if an untracked file is in the way
+     */
+    private static boolean isInTheWay(String fileName, Map<String, String> trackedFiles) {
+        for (int slash = fileName.indexOf('/'); slash >= 0; slash = fileName.indexOf('/', slash + 1)) {
+            String dir = fileName.substring(0, slash);
+            if (join(Repository.CWD, dir).isFile() && !trackedFiles.containsKey(dir)) {
+                return true;
+            }
+        }
+        File file = join(Repository.CWD, fileName);
+        if (!file.isDirectory()) {
+            return file.exists();
+        }
+        try (Stream<Path> paths = Files.walk(file.toPath())) {
+            Path cwd = Repository.CWD.toPath();
+            return paths.filter(Files::isRegularFile)
+                    .map(path -> cwd.relativize(path).toString().replace(File.separatorChar, '/'))
+                    .anyMatch(path -> !trackedFiles.containsKey(path));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Writes files from the object store into the working directory in parallel.
+     * @param filesToWrite map from the path of each file to the hash of its blob
+     * @return the stat data of the written files
+     */
+    private static Map<String, FileStat> writeFiles(Map<String, String> filesToWrite) {
+        Map<String, FileStat> written = new ConcurrentHashMap<>();
+        if (filesToWrite.isEmpty()) {
+            return written;
+        }
+        int threads = Math.min(CHECKOUT_THREADS, filesToWrite.size());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (Map.Entry<String, String> entry : filesToWrite.entrySet()) {
+                tasks.add(pool.submit(() -> {
+                    File file = join(Repository.CWD, entry.getKey());
+                    file.getParentFile().mkdirs();
+                    Repository.OBJECT_STORE.copyTo(entry.getValue(), file);
+                    FileStat stat = FileStat.of(file);
+                    if (stat != null) {
+                        written.put(entry.getKey(), stat.withHash(entry.getValue()));
+                    }
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (ExecutionException excp) {
+            throw new IllegalArgumentException(excp.getCause().getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+        return written;
     }
 }
@@ -0,0 +1,75 @@
+package gitlet;
+
+import java.util.Random;
+
+/**
+ * Splits large files into content-defined chunks with the FastCDC algorithm.
+ * A rolling gear hash is computed over the bytes, and a chunk ends where the
+ * hash matches a mask. Since the cut points depend only on nearby content,
+ * an edit in one part of a file moves the boundaries of the chunks around the
+ * edit and no others, so two versions of a large file share all other chunks.
+ * Below the average size a mask with more bits is used and above it one with
+ * fewer, which keeps chunk sizes close to the average.
+ * @author Ziqi He
+ */
+public class Chunker {
+    /** Smallest chunk, except for the last chunk of a file. */
+    static final int MIN_SIZE = 16 * 1024;
+
+    /** Average chunk size the masks aim for. */
+    static final int AVERAGE_SIZE = 64 * 1024;
+
+    /** Largest chunk; a chunk is cut here if no boundary was found. */
+    static final int MAX_SIZE = 256 * 1024;
+
+    /** Mask used below the average size: 18 of the high bits, two more than log2(AVERAGE_SIZE). */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+
+    /** Mask used above the average size: 14 of the high bits, two fewer than log2(AVERAGE_SIZE). */
+    private static final long MASK_LARGE = -1L << (64 - 14);
+
+    /**
+     * Random value of each byte, added to the gear hash.
+     * The seed is fixed, since every version of gitlet must cut files in the same places.
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Finds the end of the first chunk of the given data.
+     * The high bits of the gear hash depend on the last 64 bytes, so those are the
+     * bits the masks test.
+     * @param data
+     * @param offset start of the data in the array
+     * @param length number of bytes available; fewer than MAX_SIZE only at the end of a file
+     * @return the length of the first chunk
+     */
+    public static int cut(byte[] data, int offset, int length) {
+        if (length <= MIN_SIZE) {
+            return length;
+        }
+        int normal = Math.min(AVERAGE_SIZE, length);
+        int end = Math.min(MAX_SIZE, length);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i += 1) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+}
@@ -0,0 +1,250 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/**
+ * Reads and writes gitlet's binary object formats.
+ * Every encoded object starts with a one-byte type tag and a one-byte version,
+ * followed by fields written with varint lengths. Hashes are written as
+ * 20 raw bytes rather than 40 hex characters.
+ * Objects written with Java serialization start with the stream magic 0xACED
+ * instead, which no type tag collides with, so both can be read.
+ * @author Ziqi He
+ */
+public class Codec {
+    /** First byte of a Java serialization stream. */
+    private static final int SERIALIZATION_MAGIC = 0xac;
+
+    /** The bytes written so far. */
+    private byte[] buffer = new byte[256];
+
+    /** The number of bytes written so far. */
+    private int count;
+
+    /** The decoder of one object, or null if this codec is encoding. */
+    private final DataInputStream in;
+
+    /**
+     * Starts encoding an object with the given type tag and version.
+     * @param type
+     * @param version
+     */
+    public Codec(int type, int version) {
+        this.in = null;
+        writeByte(type);
+        writeByte(version);
+    }
+
+    /**
+     * Starts decoding an encoded object.
+     * @param encoded
+     */
+    public Codec(byte[] encoded) {
+        this.in = new DataInputStream(new ByteArrayInputStream(encoded));
+    }
+
+    /**
+     * Checks whether the given object was written with Java serialization.
+     * @param encoded
+     * @return true for a legacy object
+     */
+    public static boolean isSerialized(byte[] encoded) {
+        return encoded.length > 0 && (encoded[0] & 0xff) == SERIALIZATION_MAGIC;
+    }
+
+    /**
+     * Gets the type tag of the given object without decoding it.
+     * @param encoded
+     * @return the type tag, or -1 for an empty or legacy object
+     */
+    public static int typeOf(byte[] encoded) {
+        if (encoded.length == 0 || isSerialized(encoded)) {
+            return -1;
+        }
+        return encoded[0] & 0xff;
+    }
+
+    /**
+     * Reads the type tag and version of the object being decoded and checks them.
+     * @param type the expected type tag
+     * @param version the highest version understood
+     * @return the version of the object
+     */
+    public int readHeader(int type, int version) {
+        int actualType = readByte();
+        int actualVersion = readByte();
+        if (actualType != type || actualVersion < 1 || actualVersion > version) {
+            throw error("Unknown object format %d version %d", actualType, actualVersion);
+        }
+        return actualVersion;
+    }
+
+    /**
+     * Gets the encoded object.
+     * @return the bytes written so far
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, count);
+    }
+
+    /** Writes the low eight bits of VALUE. */
+    public void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[count++] = (byte) value;
+    }
+
+    /** Writes all of BYTES. */
+    public void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    /** Reads one unsigned byte. */
+    public int readByte() {
+        try {
+            return in.readUnsignedByte();
+        } catch (IOException excp) {
+            throw error("Truncated object");
+        }
+    }
+
+    /** Reads LENGTH bytes. */
+    public byte[] readBytes(int length) {
+        byte[] bytes = new byte[length];
+        readFully(bytes);
+        return bytes;
+    }
+
+    /** Writes the non-negative VALUE in seven-bit groups, least significant first. */
+    public void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7fL) != 0) {
+            buffer[count++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[count++] = (byte) value;
+    }
+
+    /** Reads a value written by writeVarint. */
+    public long readVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw error("Malformed varint");
+    }
+
+    /** Reads a varint that must fit in an int. */
+    public int readLength() {
+        long length = readVarint();
+        if (length > Integer.MAX_VALUE) {
+            throw error("Malformed length");
+        }
+        return (int) length;
+    }
+
+    /** Writes S as its UTF-8 length followed by its UTF-8 bytes. */
+    public void writeString(String s) {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(utf8.length);
+        writeBytes(utf8);
+    }
+
+    /** Reads a string written by writeString. */
+    public String readString() {
+        byte[] utf8 = new byte[readLength()];
+        readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /** Writes the 40-character HASH as 20 raw bytes. */
+    public void writeHash(String hash) {
+        writeBytes(fromHex(hash));
+    }
+
+    /** Reads a hash written by writeHash. */
+    public String readHash() {
+        byte[] raw = new byte[Pack.HASH_BYTES];
+        readFully(raw);
+        return toHex(raw);
+    }
+
+    /**
+     * Writes a map from paths to hashes as a path table sorted by path,
+     * followed by the table of hashes in the same order.
+     * @param map
+     */
+    public void writePathTable(Map<String, String> map) {
+        List<String> paths = new ArrayList<>(map.keySet());
+        Collections.sort(paths);
+        writeVarint(paths.size());
+        for (String path : paths) {
+            writeString(path);
+        }
+        for (String path : paths) {
+            writeHash(map.get(path));
+        }
+    }
+
+    /**
+     * Reads a table written by writePathTable into the given map.
+     * @param map
+     */
+    public void readPathTable(Map<String, String> map) {
+        int size = readLength();
+        String[] paths = new String[size];
+        for (int i = 0; i < size; i += 1) {
+            paths[i] = readString();
+        }
+        for (String path : paths) {
+            map.put(path, readHash());
+        }
+    }
+
+    /** Writes a list of strings preceded by its length. */
+    public void writeStrings(List<String> strings) {
+        writeVarint(strings.size());
+        for (String s : strings) {
+            writeString(s);
+        }
+    }
+
+    /** Reads a list written by writeStrings into LIST. */
+    public void readStrings(List<String> list) {
+        int size = readLength();
+        for (int i = 0; i < size; i += 1) {
+            list.add(readString());
+        }
+    }
+
+    /** Grows the buffer to hold at least EXTRA more bytes. */
+    private void ensureCapacity(int extra) {
+        if (count + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, count + extra));
+        }
+    }
+
+    /** Fills BYTES from the object being decoded. */
+    private void readFully(byte[] bytes) {
+        try {
+            in.readFully(bytes);
+        } catch (IOException excp) {
+            throw error("Truncated object");
+        }
+    }
+}
@@ -1,10 +1,17 @@
 package gitlet;
 
 import java.io.Serializable;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
-import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.TreeMap;
 import static gitlet.Utils.*;
 
 
@@ -16,6 +23,28 @@ import static gitlet.Utils.*;
  * @author Ziqi He
  */
 public class Commit implements Serializable {
+    /** Pinned so that commits written with Java serialization can still be read. */
+    private static final long serialVersionUID = -5745661621271225007L;
+
+    /** Type tag of the binary commit format. */
+    static final int TYPE = 'C';
+
+    /** Version of the binary commit format. */
+    static final int VERSION = 2;
+
+    /**
+     * Start of a commit written with Java serialization: the stream magic and
+     * version, then a new object of a new class named gitlet.Commit.
+     */
+    private static final byte[] SERIALIZED_HEADER = {(byte) 0xac, (byte) 0xed, 0, 5, 0x73, 0x72, 0, 13,
+        'g', 'i', 't', 'l', 'e', 't', '.', 'C', 'o', 'm', 'm', 'i', 't'};
+
+    /** Shortest abbreviation of a commit id that is resolved. */
+    static final int MIN_ABBREVIATION = 4;
+
+    /** Parent of the initial commit, which has no real parent. */
+    static final String NO_PARENT = "0000";
+
     /**
      * List all instance variables of the Commit class here with a useful
      * comment above them describing what that variable represents and how that
@@ -34,18 +63,48 @@ public class Commit implements Serializable {
     /** The parent commit of this Commit. */
     private String hashOfParent;
 
-    /** The snapshot of staging area. */
+    /** The merged-in parent of a merge commit, or null for any other commit. */
+    private String hashOfSecondParent;
+
+    /**
+     * The snapshot of staging area.
+     * Only set for commits written before tree objects; newer commits have a tree instead.
+     */
     private Index index;
 
-    /** Constructor */
+    /** The hash of the root tree of the snapshot. */
+    private String treeHash;
+
+    /** The files of the snapshot, flattened from the tree when first needed. */
+    private transient Map<String, String> trackedFiles;
+
+    /**
+     * Constructor.
+     * The snapshot is the parent's tree with the staged files added and the files
+     * staged for removal taken out. Only the trees of directories containing a
+     * change are written; all other subtrees are shared with the parent.
+     */
     public Commit(String hashOfParent, String timestamp, String message) {
+        this(hashOfParent, null, timestamp, message);
+    }
+
+    /**
+     * Constructor of a merge commit, which has the head of the merged-in branch
+     * as its second parent. Its snapshot is built from the parent as above.
+     */
+    public Commit(String hashOfParent, String hashOfSecondParent, String timestamp, String message) {
         this.hashOfParent = hashOfParent;
+        this.hashOfSecondParent = hashOfSecondParent;
         this.timestamp = timestamp;
         this.message = message;
-        this.index = Index.fromFile();
-        // By default, a commit hash the same file contents as its parent.
-        index.stagingArea.putAll(Commit.readCommit(hashOfParent).getIndex().stagingArea);
-        index.removalArea.addAll(Commit.readCommit(hashOfParent).getIndex().removalArea);
+
+        Index stagingArea = Index.fromFile();
+        Map<String, String> changes = new HashMap<>(stagingArea.stagingArea);
+        for (String fileName : stagingArea.removalArea) {
+            changes.put(fileName, null);
+        }
+        // By default, a commit has the same file contents as its parent.
+        this.treeHash = Tree.update(Commit.readCommit(hashOfParent).getTree(), changes);
     }
 
     /** Constructor of initial commit. */
@@ -53,15 +112,99 @@ public class Commit implements Serializable {
         this.hashOfParent = hashOfParent;
         this.timestamp = timestamp;
         this.message = message;
-        this.index = Index.fromFile();
+        this.treeHash = Tree.build(new HashMap<>());
+    }
+
+    /** Constructor of a commit decoded from its binary format. */
+    private Commit() {
     }
 
     /**
-     * Getter of index.
-     * @return
+     * Gets the root tree of the snapshot.
+     * A commit written before tree objects gets its trees built from its index.
+     * @return the hash of the root tree
+     */
+    public String getTree() {
+        if (treeHash == null) {
+            treeHash = Tree.build(index.stagingArea);
+        }
+        return treeHash;
+    }
+
+    /**
+     * Gets the root tree of this commit without building one.
+     * @return the hash of the tree, or null if the commit was written before
+     * tree objects and lists its files itself
+     */
+    public String getStoredTree() {
+        return treeHash;
+    }
+
+    /**
+     * Gets the parents of this commit.
+     * @return the hashes of the parents, empty for the initial commit
+     */
+    public List<String> getParents() {
+        if (NO_PARENT.equals(hashOfParent)) {
+            return Collections.emptyList();
+        }
+        if (hashOfSecondParent == null) {
+            return Collections.singletonList(hashOfParent);
+        }
+        return Arrays.asList(hashOfParent, hashOfSecondParent);
+    }
+
+    /**
+     * Gets the message of this commit.
+     * @return message
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Gets the timestamp of this commit, as it is shown in the log.
+     * @return formatted date
+     */
+    public String getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Gets the time of this commit.
+     * @return seconds since the epoch, or 0 if the timestamp cannot be parsed
+     */
+    public long getTime() {
+        SimpleDateFormat formatter = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z");
+        try {
+            return formatter.parse(timestamp).getTime() / 1000;
+        } catch (ParseException excp) {
+            return 0;
+        }
+    }
+
+    /**
+     * Gets the files tracked in this commit.
+     * @return map from the path of each file to the hash of its blob
      */
-    public Index getIndex() {
-        return this.index;
+    public Map<String, String> getTrackedFiles() {
+        if (trackedFiles == null) {
+            trackedFiles = treeHash == null ? index.stagingArea : Tree.flatten(treeHash);
+        }
+        return trackedFiles;
+    }
+
+    /**
+     * Gets the blob of one file tracked in this commit,
+     * reading only the trees on the path to the file.
+     * @param fileName
+     * @return the hash of the blob, or null if the file is not tracked
+     */
+    public String getFileHash(String fileName) {
+        if (trackedFiles != null || treeHash == null) {
+            return getTrackedFiles().get(fileName);
+        }
+        return Tree.lookup(treeHash, fileName);
     }
 
     /**
@@ -69,51 +212,184 @@ public class Commit implements Serializable {
      * @return hash value of this commit
      */
     public String getHash() {
-        String hash = sha1(message, author, timestamp, hashOfParent, String.valueOf(index.hashCode()));
+        String hash = sha1(toBytes());
         return hash;
     }
 
+    /**
+     * Encodes this commit in the binary commit format:
+     * message, author and timestamp, the number of parents and their raw hashes,
+     * then the raw hash of the root tree.
+     * @return the encoded commit
+     */
+    public byte[] toBytes() {
+        Codec codec = new Codec(TYPE, VERSION);
+        codec.writeString(message);
+        codec.writeString(author);
+        codec.writeString(timestamp);
+        List<String> parents = getParents();
+        codec.writeVarint(parents.size());
+        for (String parent : parents) {
+            codec.writeHash(parent);
+        }
+        codec.writeHash(getTree());
+        return codec.toByteArray();
+    }
+
+    /**
+     * Decodes a commit, which may have been written with Java serialization
+     * or, in version 1 of the format, with its snapshot as a path table.
+     * @param encoded
+     * @return Commit object
+     */
+    public static Commit fromBytes(byte[] encoded) {
+        if (Codec.isSerialized(encoded)) {
+            return deserialize(encoded, Commit.class);
+        }
+        Metrics.count(Metrics.OBJECTS_DECODED);
+        Codec codec = new Codec(encoded);
+        int version = codec.readHeader(TYPE, VERSION);
+        Commit commit = new Commit();
+        commit.message = codec.readString();
+        commit.author = codec.readString();
+        commit.timestamp = codec.readString();
+        int parents = codec.readLength();
+        commit.hashOfParent = parents == 0 ? NO_PARENT : codec.readHash();
+        if (parents > 1) {
+            commit.hashOfSecondParent = codec.readHash();
+        }
+        if (version == 1) {
+            commit.index = Index.decode(codec, false);
+        } else {
+            commit.treeHash = codec.readHash();
+        }
+        return commit;
+    }
+
+    /**
+     * Resolves a commit id, which may be abbreviated to a unique prefix.
+     * Objects other than commits that share the prefix are ignored.
+     * @param commitID full or abbreviated hash of a commit
+     * @return the full hash, or null if no commit matches
+     */
+    public static String resolve(String commitID) {
+        String prefix = commitID.toLowerCase();
+        if (prefix.length() < MIN_ABBREVIATION || prefix.length() > UID_LENGTH
+                || !prefix.matches("[0-9a-f]+")) {
+            return null;
+        }
+        if (prefix.length() == UID_LENGTH) {
+            return isCommit(prefix) ? prefix : null;
+        }
+        String match = null;
+        for (String hash : Repository.OBJECT_STORE.findByPrefix(prefix)) {
+            if (!isCommit(hash)) {
+                continue;
+            }
+            if (match != null) {
+                throw error("Commit id %s is ambiguous.", commitID);
+            }
+            match = hash;
+        }
+        return match;
+    }
+
+    /**
+     * Returns whether the object HASH is a commit. A commit in the commit-graph
+     * is known to be one; for any other object only the first bytes are read.
+     */
+    private static boolean isCommit(String hash) {
+        if (Repository.COMMIT_GRAPH.find(hash) != CommitGraph.NONE) {
+            return true;
+        }
+        byte[] start = Repository.OBJECT_STORE.readStart(hash, SERIALIZED_HEADER.length);
+        if (start == null) {
+            return false;
+        }
+        if (Codec.isSerialized(start)) {
+            return Arrays.equals(start, SERIALIZED_HEADER);
+        }
+        return start.length >= 2 && Codec.typeOf(start) == TYPE
+                && start[1] >= 1 && start[1] <= VERSION;
+    }
+
+    /**
+     * Lists every commit in the object store, packed or loose, reading each
+     * object to tell. Chunked objects are always blobs and are not read.
+     * @return hashes of the commits
+     */
+    static List<String> listStoredCommits() {
+        ObjectStore store = Repository.OBJECT_STORE;
+        List<String> hashes = new ArrayList<>();
+        Pack pack = store.getPack();
+        for (int position = 0; position < pack.size(); position += 1) {
+            hashes.add(pack.hashAt(position));
+        }
+        hashes.addAll(store.looseObjects());
+
+        List<String> commits = new ArrayList<>();
+        for (String hash : hashes) {
+            byte[] stored = store.readStored(hash);
+            if (stored == null || ObjectStore.isChunked(stored)) {
+                continue;
+            }
+            byte[] contents = store.read(hash);
+            if (!Codec.isSerialized(contents) && Codec.typeOf(contents) != TYPE) {
+                continue;
+            }
+            try {
+                fromBytes(contents);
+            } catch (RuntimeException excp) {
+                // A blob that only starts like a commit.
+                continue;
+            }
+            commits.add(hash);
+        }
+        return commits;
+    }
+
     /**
      * Reads the commit from object folder.
      * @param hashOfCommit
      * @return Commit object
      */
     public static Commit readCommit(String hashOfCommit) {
-        String[] blobPath = Repository.getBlobPath(hashOfCommit);
-        String firstTwoHash = blobPath[0];
-        String restOfHash = blobPath[1];
-        return readObject(join(Repository.OBJECTS, firstTwoHash, restOfHash), Commit.class);
+        // A commit this command has already read is not read again.
+        Commit cached = ObjectCache.getCommit(hashOfCommit);
+        if (cached != null) {
+            return cached;
+        }
+        // The pack is searched first, then the loose objects.
+        byte[] commitContent = Repository.OBJECT_STORE.read(hashOfCommit);
+        if (commitContent == null) {
+            return null;
+        }
+        Commit commit = fromBytes(commitContent);
+        ObjectCache.putCommit(hashOfCommit, commit);
+        return commit;
     }
 
     /**
-     * Serializes this commit.
+     * Encodes this commit.
      * Store this commit into directory "Objects".
      * It has to follow the naming rule in this folder.
      * Use first two hash as folder name, and the rest of hash as file name.
      * */
     public void writeCommit() {
-       String hashOfCommit = getHash();
-       String[] blobPath = Repository.getBlobPath(hashOfCommit);
-       String firstTwoHash = blobPath[0];
-       String restHash = blobPath[1];
-
-        // Using the first two hash of blob to create a directory
-        // if it doesn't exist
-        File objectDirectory = join(Repository.OBJECTS, firstTwoHash);
-        if (!objectDirectory.exists()) {
-            objectDirectory.mkdir();
-        }
-
-        // Using the rest of hash as file name
-        File commitContent = join(objectDirectory, restHash);
-        // Write the content into blob
-        writeObject(commitContent, this);
-
-        // Update branch pointer pointing to this commit
-        Branch.updateBranchPointer(Branch.getCurrentBranch(), hashOfCommit);
-
-        // The staging area is cleared after a commit.
-        Index.fromFile().clearIndex();
+        String hashOfCommit = getHash();
+        // Store this commit under its hash.
+        Repository.OBJECT_STORE.write(hashOfCommit, toBytes());
+        ObjectCache.putCommit(hashOfCommit, this);
+        // Record its parents in the commit-graph, so history can be walked without reading it.
+        Repository.COMMIT_GRAPH.add(hashOfCommit, this);
+
+        // Update branch pointer pointing to this commit, and clear the staging area.
+        // Both files are synced to disk together, and the branch is replaced first,
+        // so a crash never loses the staged files without the commit that holds them.
+        Index index = Index.fromFile();
+        index.clear();
+        ObjectCache.write(Collections.singletonMap(
+                Branch.refFile(Branch.getCurrentBranch()), hashOfCommit), index);
     }
 
     /**
@@ -125,14 +401,12 @@ public class Commit implements Serializable {
      */
     public static void checkoutFile(String fileName) {
         Commit currentCommit = Commit.readCommit(Branch.getLastCommit(Branch.getCurrentBranch()));
-        if (!currentCommit.getIndex().stagingArea.containsKey(fileName)) {
+        String hashOfFileInCurrentCommit = currentCommit.getFileHash(fileName);
+        if (hashOfFileInCurrentCommit == null) {
             message("File does not exist in that commit.");
             return;
         }
-        String hashOfFileInCurrentCommit = currentCommit.getIndex().stagingArea.get(fileName);
-        String[] blobPath = Repository.getBlobPath(hashOfFileInCurrentCommit);
-        File blobOfFileInCurrentCommit = join(Repository.OBJECTS, blobPath[0], blobPath[1]);
-        writeContents(join(Repository.CWD, fileName), readContents(blobOfFileInCurrentCommit));
+        writeContents(join(Repository.CWD, fileName), Repository.readBlob(hashOfFileInCurrentCommit));
     }
 
     /**
@@ -144,15 +418,18 @@ public class Commit implements Serializable {
      * @param fileName
      */
     public static void checkoutFile(String commitID, String fileName) {
-        Commit targeCommit = Commit.readCommit(commitID);
+        String hashOfCommit = resolve(commitID);
+        Commit targeCommit = hashOfCommit == null ? null : Commit.readCommit(hashOfCommit);
         if (targeCommit == null) {
             message("No commit with that id exists.");
             return;
         }
-        String hashOfFileInTargetCommit = targeCommit.getIndex().stagingArea.get(fileName);
-        String[] blobPath = Repository.getBlobPath(hashOfFileInTargetCommit);
-        File blobOfFileInTargetCommit = join(Repository.OBJECTS, blobPath[0], blobPath[1]);
-        writeContents(join(Repository.CWD, fileName), readContents(blobOfFileInTargetCommit));
+        String hashOfFileInTargetCommit = targeCommit.getFileHash(fileName);
+        if (hashOfFileInTargetCommit == null) {
+            message("File does not exist in that commit.");
+            return;
+        }
+        writeContents(join(Repository.CWD, fileName), Repository.readBlob(hashOfFileInTargetCommit));
     }
 
     /**
@@ -161,7 +438,7 @@ public class Commit implements Serializable {
      * @return
      */
     public boolean equals(Commit commit){
-        return this.index.equals(commit.index);
+        return this.getTree().equals(commit.getTree());
     }
 
     /**
@@ -207,9 +484,12 @@ public class Commit implements Serializable {
 
     public void print() {
         System.out.println("Parent commit: " + this.hashOfParent);
+        if (this.hashOfSecondParent != null) {
+            System.out.println("Second parent commit: " + this.hashOfSecondParent);
+        }
         System.out.println("Commit message: " + this.message);
         System.out.println("Commit timestamp: " + this.timestamp);
-        System.out.print("Index: ");
-        this.index.print();
+        System.out.println("Tree: " + this.getTree());
+        System.out.println(new TreeMap<>(this.getTrackedFiles()));
     }
 }
\ No newline at end of file
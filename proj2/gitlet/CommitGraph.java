@@ -0,0 +1,588 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents the commit-graph of a repository: a cache of the parents,
+ * generation number and time of every commit, so history can be walked
+ * without reading and decoding any commit object.
+ * The file is a header followed by fixed-size records, appended in an order
+ * where every commit comes after its parents. A commit refers to its parents
+ * by their positions in the file, and the file is memory-mapped, so following
+ * a parent is a single read from the mapped file. A commit is found by its
+ * hash through a hash table of positions kept in memory, which is built on
+ * the first lookup and then only extended as records are appended.
+ * The graph of a repository records every commit in it: when the file is first
+ * created, as in a repository made before the graph existed, every stored commit
+ * is added, including those no branch reaches, and every commit written after
+ * that is added as it is written.
+ * The generation number of a commit is one more than the largest generation
+ * of its parents, so a commit can never be an ancestor of a commit whose
+ * generation is not larger than its own.
+ *
+ * Layout of a record:
+ *   hash                               20 bytes
+ *   first parent, second parent        two ints, the position of each parent or -1
+ *   generation                         int, 1 for a commit without parents
+ *   time                               long, seconds since the epoch
+ * @author Ziqi He
+ */
+public class CommitGraph {
+    /** Magic number at the start of the file ("GCGR"). */
+    private static final int MAGIC = 0x47434752;
+
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+
+    /** Size of the header in bytes. */
+    private static final int HEADER_SIZE = 8;
+
+    /** Size of a record in bytes. */
+    private static final int RECORD_SIZE = Pack.HASH_BYTES + 3 * 4 + 8;
+
+    /** Position of a missing parent. */
+    public static final int NONE = -1;
+
+    /** Paint of a commit reachable from the first commit of a merge-base walk. */
+    private static final byte FIRST_SIDE = 1;
+
+    /** Paint of a commit reachable from the second commit of a merge-base walk. */
+    private static final byte SECOND_SIDE = 2;
+
+    /** Paint of a commit reachable from both commits. */
+    private static final byte BOTH_SIDES = FIRST_SIDE | SECOND_SIDE;
+
+    /** The commit-graph file. */
+    private final File file;
+
+    /** Whether every stored commit is added when the file is created. */
+    private final boolean complete;
+
+    /** Whether the stored commits are being added. */
+    private boolean backfilling;
+
+    /** The mapped file, or null if it has not been mapped yet. */
+    private MappedByteBuffer records;
+
+    /** Number of records in the mapped file. */
+    private int size;
+
+    /**
+     * Open-addressing hash table of the records, keyed by the first four bytes
+     * of their hashes, holding position + 1 in each used slot and 0 in the others.
+     * Null until a commit is first looked up.
+     */
+    private int[] table;
+
+    /** Number of records in the table, which are the first records of the file. */
+    private int indexed;
+
+    /** Hash of the last record in the table, to tell whether the file was rewritten. */
+    private final byte[] lastIndexed = new byte[Pack.HASH_BYTES];
+
+    /**
+     * Constructor of CommitGraph, for a graph of only the commits added to it.
+     * @param file the commit-graph file, which need not exist yet
+     */
+    public CommitGraph(File file) {
+        this(file, false);
+    }
+
+    /**
+     * Constructor of CommitGraph.
+     * @param file the commit-graph file, which need not exist yet
+     * @param complete whether to add every commit in the repository's object store
+     *                 when the file is created, which is for the repository's own graph
+     */
+    public CommitGraph(File file, boolean complete) {
+        this.file = file;
+        this.complete = complete;
+    }
+
+    /**
+     * Gets the number of commits in the graph.
+     * @return number of commits
+     */
+    public int size() {
+        return map() ? size : 0;
+    }
+
+    /**
+     * Finds the position of a commit.
+     * @param hash hexadecimal hash of the commit
+     * @return the position, or -1 if the commit is not in the graph
+     */
+    public int find(String hash) {
+        if (!map()) {
+            return NONE;
+        }
+        index();
+        byte[] key = fromHex(hash);
+        byte[] probe = new byte[Pack.HASH_BYTES];
+        int mask = table.length - 1;
+        for (int slot = ByteBuffer.wrap(key).getInt() & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int position = table[slot] - 1;
+            records.get(offset(position), probe);
+            if (Arrays.equals(probe, key)) {
+                return position;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Brings the hash table up to date with the mapped file.
+     * Records are only ever appended, except by remove, which drops some;
+     * if the last record in the table is no longer at its position,
+     * the table is built again from the start.
+     */
+    private void index() {
+        if (table != null && indexed > 0) {
+            byte[] probe = new byte[Pack.HASH_BYTES];
+            if (indexed <= size) {
+                records.get(offset(indexed - 1), probe);
+            }
+            if (indexed > size || !Arrays.equals(probe, lastIndexed)) {
+                table = null;
+            }
+        }
+        if (table == null || size * 2 > table.length) {
+            // Keep the table at most half full, so probe sequences stay short.
+            table = new int[Integer.highestOneBit(Math.max(size, 8) * 2) << 1];
+            indexed = 0;
+        }
+        if (indexed == size) {
+            return;
+        }
+        int mask = table.length - 1;
+        for (; indexed < size; indexed += 1) {
+            int slot = records.getInt(offset(indexed)) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = indexed + 1;
+        }
+        records.get(offset(indexed - 1), lastIndexed);
+    }
+
+    /**
+     * Gets the hash of the commit at the given position.
+     * @param position
+     * @return hexadecimal hash
+     */
+    public String hashAt(int position) {
+        map();
+        byte[] hash = new byte[Pack.HASH_BYTES];
+        records.get(offset(position), hash);
+        return toHex(hash);
+    }
+
+    /**
+     * Gets the position of a parent of the commit at the given position.
+     * @param position
+     * @param which 0 for the first parent, 1 for the second
+     * @return the position of the parent, or -1 if there is no such parent
+     */
+    public int parent(int position, int which) {
+        return records.getInt(offset(position) + Pack.HASH_BYTES + 4 * which);
+    }
+
+    /**
+     * Gets the generation number of the commit at the given position.
+     * @param position
+     * @return generation number
+     */
+    public int generation(int position) {
+        return records.getInt(offset(position) + Pack.HASH_BYTES + 8);
+    }
+
+    /**
+     * Gets the time of the commit at the given position.
+     * @param position
+     * @return seconds since the epoch
+     */
+    public long time(int position) {
+        return records.getLong(offset(position) + Pack.HASH_BYTES + 12);
+    }
+
+    /**
+     * Adds a commit to the graph, together with any of its ancestors that
+     * are missing, as for commits written before the graph existed.
+     * @param hash hexadecimal hash of the commit
+     * @return the position of the commit
+     */
+    public int add(String hash) {
+        return add(hash, null);
+    }
+
+    /**
+     * Adds a commit that has just been written to the graph.
+     * @param hash hexadecimal hash of the commit
+     * @param commit the commit, or null to read it from the object store
+     * @return the position of the commit
+     */
+    public int add(String hash, Commit commit) {
+        if (complete && !backfilling && !map()) {
+            addStoredCommits();
+        }
+        int position = find(hash);
+        if (position >= 0) {
+            return position;
+        }
+
+        // Walk back from the commit until every path reaches a commit already in the graph,
+        // listing the missing commits with each one after its parents.
+        Map<String, Commit> missing = new LinkedHashMap<>();
+        Map<String, Commit> visited = new HashMap<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(hash);
+        if (commit != null) {
+            visited.put(hash, commit);
+            pushMissingParents(commit, missing, pending);
+        }
+        while (!pending.isEmpty()) {
+            String current = pending.peek();
+            if (missing.containsKey(current) || find(current) >= 0) {
+                pending.pop();
+                continue;
+            }
+            Commit currentCommit = visited.get(current);
+            if (currentCommit == null) {
+                currentCommit = Commit.readCommit(current);
+                if (currentCommit == null) {
+                    throw error("Missing commit %s", current);
+                }
+                visited.put(current, currentCommit);
+                pushMissingParents(currentCommit, missing, pending);
+                continue;
+            }
+            pending.pop();
+            missing.put(current, currentCommit);
+        }
+
+        // Positions are only given out under the lock, against the graph as it is then,
+        // since another process may have appended commits since it was mapped.
+        try (FileChannel channel = lock()) {
+            Map<String, Integer> added = new HashMap<>();
+            List<String> hashes = new ArrayList<>();
+            List<int[]> parents = new ArrayList<>();
+            List<Long> times = new ArrayList<>();
+            int next = size();
+            for (Map.Entry<String, Commit> entry : missing.entrySet()) {
+                if (find(entry.getKey()) >= 0) {
+                    continue;
+                }
+                int[] parentPositions = {NONE, NONE};
+                List<String> parentHashes = entry.getValue().getParents();
+                for (int i = 0; i < parentHashes.size() && i < parentPositions.length; i += 1) {
+                    Integer addedPosition = added.get(parentHashes.get(i));
+                    parentPositions[i] = addedPosition != null ? addedPosition : find(parentHashes.get(i));
+                }
+                hashes.add(entry.getKey());
+                parents.add(parentPositions);
+                times.add(entry.getValue().getTime());
+                added.put(entry.getKey(), next);
+                next += 1;
+            }
+            append(channel, hashes, parents, times);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return find(hash);
+    }
+
+    /**
+     * Adds every commit in the object store that the graph does not have yet.
+     * @return the number of commits in the graph
+     */
+    public int addStoredCommits() {
+        backfilling = true;
+        try {
+            for (String hash : Commit.listStoredCommits()) {
+                add(hash);
+            }
+        } finally {
+            backfilling = false;
+        }
+        return size();
+    }
+
+    /**
+     * Appends commits whose parents are given by position, computing their generations.
+     * No commit object is read, so this also builds synthetic graphs for benchmarks.
+     * @param hashes hashes of the commits
+     * @param parents positions of the first and second parent of each commit, or -1;
+     *                a parent is either in the graph or earlier in HASHES
+     * @param times time of each commit in seconds since the epoch
+     */
+    void append(List<String> hashes, List<int[]> parents, List<Long> times) {
+        try (FileChannel channel = lock()) {
+            append(channel, hashes, parents, times);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Appends commits as in append(HASHES, PARENTS, TIMES) to the locked file CHANNEL. */
+    private void append(FileChannel channel, List<String> hashes, List<int[]> parents, List<Long> times)
+            throws IOException {
+        if (hashes.isEmpty()) {
+            return;
+        }
+        int first = size();
+        int[] generations = new int[hashes.size()];
+        ByteBuffer buffer = ByteBuffer.allocate(hashes.size() * RECORD_SIZE);
+        for (int i = 0; i < hashes.size(); i += 1) {
+            int[] parentPositions = parents.get(i);
+            int generation = 1;
+            for (int parent : parentPositions) {
+                if (parent == NONE) {
+                    continue;
+                }
+                int parentGeneration = parent < first ? generation(parent) : generations[parent - first];
+                generation = Math.max(generation, parentGeneration + 1);
+            }
+            generations[i] = generation;
+            buffer.put(fromHex(hashes.get(i)))
+                    .putInt(parentPositions[0]).putInt(parentPositions[1])
+                    .putInt(generation).putLong(times.get(i));
+        }
+        buffer.flip();
+        write(channel, buffer);
+    }
+
+    /**
+     * Rewrites the graph without the given commits, as when they are deleted.
+     * No other commit may have a dropped commit as a parent; the kept commits stay
+     * in the same order, with their parents at their new positions. Commits that
+     * another process appends meanwhile are kept.
+     * The new file replaces the old one through a lock file, while the old one is locked.
+     * @param drop positions of the commits to drop
+     */
+    public void remove(BitSet drop) {
+        if (drop.isEmpty()) {
+            return;
+        }
+        try (FileChannel channel = lock()) {
+            int[] newPositions = new int[size()];
+            int kept = 0;
+            for (int position = 0; position < newPositions.length; position += 1) {
+                newPositions[position] = drop.get(position) ? NONE : kept++;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + kept * RECORD_SIZE);
+            buffer.putInt(MAGIC).putInt(VERSION);
+            for (int position = 0; position < newPositions.length; position += 1) {
+                if (newPositions[position] == NONE) {
+                    continue;
+                }
+                int first = parent(position, 0);
+                int second = parent(position, 1);
+                buffer.put(fromHex(hashAt(position)))
+                        .putInt(first == NONE ? NONE : newPositions[first])
+                        .putInt(second == NONE ? NONE : newPositions[second])
+                        .putInt(generation(position)).putLong(time(position));
+            }
+            LockFile lock = new LockFile(file);
+            try {
+                lock.write(buffer.array());
+                LockFile.commitAll(List.of(lock));
+            } finally {
+                lock.rollback();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        records = null;
+    }
+
+    /**
+     * Finds a best common ancestor of two commits, that is, a common ancestor
+     * which is not an ancestor of any other common ancestor.
+     * Both commits are walked at once, always taking the commit with the largest
+     * generation next and painting it with the sides it can be reached from.
+     * Since parents have smaller generations, every commit that can reach a
+     * commit has been taken before it, so its paint is final when it is taken,
+     * and the first commit painted from both sides is a best common ancestor.
+     * Ancestors with smaller generations are never visited.
+     * @param first position of one commit
+     * @param second position of the other commit
+     * @return the position of the common ancestor, or -1 if there is none
+     */
+    public int mergeBase(int first, int second) {
+        if (first == second) {
+            return first;
+        }
+        map();
+        byte[] paint = new byte[size];
+        PriorityQueue<Integer> queue = new PriorityQueue<>(
+                (a, b) -> Integer.compare(generation(b), generation(a)));
+        paint[first] = FIRST_SIDE;
+        paint[second] = SECOND_SIDE;
+        queue.add(first);
+        queue.add(second);
+        while (!queue.isEmpty()) {
+            int position = queue.poll();
+            byte sides = paint[position];
+            if (sides == BOTH_SIDES) {
+                return position;
+            }
+            for (int which = 0; which < 2; which += 1) {
+                int parent = parent(position, which);
+                if (parent == NONE) {
+                    continue;
+                }
+                // A painted parent is already queued; only its paint changes.
+                if (paint[parent] == 0) {
+                    queue.add(parent);
+                }
+                paint[parent] |= sides;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Checks whether one commit is an ancestor of another, or the same commit.
+     * @param ancestor position of the possible ancestor
+     * @param descendant position of the possible descendant
+     * @return true if ANCESTOR can be reached from DESCENDANT
+     */
+    public boolean isAncestor(int ancestor, int descendant) {
+        return generation(ancestor) <= generation(descendant)
+                && mergeBase(ancestor, descendant) == ancestor;
+    }
+
+    /** Pushes the parents of COMMIT that are not yet in the graph onto PENDING. */
+    private void pushMissingParents(Commit commit, Map<String, Commit> missing,
+                                    Deque<String> pending) {
+        for (String parentHash : commit.getParents()) {
+            if (!missing.containsKey(parentHash) && find(parentHash) < 0) {
+                pending.push(parentHash);
+            }
+        }
+    }
+
+    /**
+     * Appends records to the locked file CHANNEL after its last complete record.
+     * Only a record left incomplete by an interrupted write is overwritten,
+     * since no other process can be writing while the lock is held.
+     */
+    private void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        long end = HEADER_SIZE + (long) size() * RECORD_SIZE;
+        if (channel.size() < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            writeFully(channel, header, 0);
+        }
+        writeFully(channel, buffer, end);
+        channel.truncate(end + buffer.limit());
+        // Map the file again, so the new positions can be read at once.
+        records = null;
+        map();
+    }
+
+    /**
+     * Opens the graph file, creating it if need be, and locks it against other processes.
+     * The file is mapped again under the lock, so its size is current. A file replaced
+     * by remove while waiting for the lock is let go, and the new one is locked instead.
+     * @return the locked file, which is unlocked when it is closed
+     */
+    private FileChannel lock() throws IOException {
+        while (true) {
+            Object before = fileKey();
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                channel.lock();
+                if (before != null && before.equals(fileKey())) {
+                    records = null;
+                    map();
+                    return channel;
+                }
+            } catch (IOException | RuntimeException excp) {
+                channel.close();
+                throw excp;
+            }
+            channel.close();
+        }
+    }
+
+    /** Returns the identity of the file now at the graph's path, or null if there is none. */
+    private Object fileKey() throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        Object key = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        // A file system without file keys cannot tell; the file is taken to be the same.
+        return key != null ? key : file.getCanonicalPath();
+    }
+
+    /**
+     * Forgets the mapped file, so it is mapped again on next use,
+     * in case another process has appended to it.
+     */
+    public void refresh() {
+        records = null;
+    }
+
+    /**
+     * Maps the file into memory if it is not mapped yet.
+     * @return false if there is no commit-graph
+     */
+    private boolean map() {
+        if (records != null) {
+            return true;
+        }
+        if (!file.isFile()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // A file just created under the lock has nothing in it yet.
+            if (channel.size() == 0) {
+                return false;
+            }
+            records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (records.capacity() < HEADER_SIZE
+                || records.getInt(0) != MAGIC || records.getInt(4) != VERSION) {
+            throw error("Corrupt commit-graph: %s", file);
+        }
+        size = (records.capacity() - HEADER_SIZE) / RECORD_SIZE;
+        return true;
+    }
+
+    /** Writes all of BUFFER to CHANNEL at POSITION. */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+    }
+
+    /** Returns the offset in the file of the record at POSITION. */
+    private static int offset(int position) {
+        return HEADER_SIZE + position * RECORD_SIZE;
+    }
+}
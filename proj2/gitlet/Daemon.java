@@ -0,0 +1,232 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import static gitlet.Utils.*;
+
+/**
+ * Handles command gitlet daemon [stop].
+ * The daemon keeps one JVM running for a repository, with its classes loaded and
+ * the refs, the index, decoded commits and delta bases cached, and runs the commands
+ * sent to it over a Unix-domain socket in the .gitlet directory. Every gitlet command
+ * first tries to hand itself to the daemon, and runs in its own JVM if none answers.
+ * Commands are run one at a time, in the order they arrive.
+ * Before each command, cached files that another process has changed are dropped.
+ *
+ * A request is a flag asking for the stats report, where to trace to (empty if
+ * not tracing), the number of arguments, and the arguments in modified UTF-8.
+ * The reply is a series of frames, each a stream (1 for standard output,
+ * 2 for standard error), a length and that many bytes, ended by a 0.
+ * @author Ziqi He
+ */
+public class Daemon {
+    /** The socket the daemon listens on. */
+    static final File SOCKET = join(Repository.GITLET_DIR, "daemon.sock");
+
+    /** Frame that ends a reply. */
+    private static final int END = 0;
+
+    /** Frame of standard output. */
+    private static final int OUT = 1;
+
+    /** Frame of standard error. */
+    private static final int ERR = 2;
+
+    /** Whether this JVM is the daemon. */
+    private static boolean serving;
+
+    /** Whether the daemon stops after the current command. */
+    private static boolean stopping;
+
+    /**
+     * Sends a command to the daemon of this repository and copies its output.
+     * @param args the command and its operands
+     * @return false if no daemon is running, so the command must be run here
+     */
+    public static boolean forward(String[] args) {
+        if (!SOCKET.exists()) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()));
+        } catch (IOException excp) {
+            // The socket of a daemon that did not shut down cleanly.
+            return false;
+        }
+        try (channel) {
+            try {
+                DataOutputStream request = new DataOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(channel)));
+                request.writeBoolean(Metrics.isReportEnabled());
+                String traceTarget = Metrics.traceTarget();
+                request.writeUTF(traceTarget == null ? "" : traceTarget);
+                request.writeInt(args.length);
+                for (String arg : args) {
+                    request.writeUTF(arg);
+                }
+                request.flush();
+            } catch (IOException excp) {
+                // The daemon went away before it had the whole command, so it did not run it.
+                return false;
+            }
+
+            DataInputStream reply = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel)));
+            int stream = reply.read();
+            while (stream != END && stream != -1) {
+                byte[] bytes = new byte[reply.readInt()];
+                reply.readFully(bytes);
+                (stream == ERR ? System.err : System.out).write(bytes);
+                stream = reply.read();
+            }
+            System.out.flush();
+            if (stream == -1) {
+                message("The daemon stopped before the command finished.");
+            }
+        } catch (IOException excp) {
+            // The command may have been partly run, so it is not run again here.
+            System.out.flush();
+            message("The daemon stopped before the command finished.");
+        }
+        System.err.flush();
+        return true;
+    }
+
+    /**
+     * Runs the daemon until it is stopped. Only a command run where no daemon
+     * answered gets here, so a socket left in place is stale and replaced.
+     */
+    public static void serve() {
+        if (serving) {
+            throw error("A daemon is already running.");
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            SOCKET.delete();
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            SOCKET.deleteOnExit();
+            serving = true;
+            message("Daemon started.");
+            while (!stopping) {
+                try (SocketChannel client = server.accept()) {
+                    handle(client);
+                } catch (IOException excp) {
+                    // The client went away; wait for the next one.
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /**
+     * Stops the daemon once the current command is done.
+     */
+    public static void stop() {
+        if (!serving) {
+            throw error("No daemon is running.");
+        }
+        stopping = true;
+        message("Daemon stopped.");
+    }
+
+    /** Reads one command from CLIENT, runs it, and sends back its output. */
+    private static void handle(SocketChannel client) throws IOException {
+        DataInputStream request = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(client)));
+        boolean report = request.readBoolean();
+        String traceTarget = request.readUTF();
+        String[] args = new String[request.readInt()];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = request.readUTF();
+        }
+
+        DataOutputStream reply = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(client)));
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        long start = System.nanoTime();
+        System.setOut(new PrintStream(new Frames(reply, OUT), false, StandardCharsets.UTF_8));
+        System.setErr(new PrintStream(new Frames(reply, ERR), false, StandardCharsets.UTF_8));
+        try {
+            ObjectCache.revalidate();
+            Repository.OBJECT_STORE.getPack().refresh();
+            Repository.COMMIT_GRAPH.refresh();
+            Repository.PACKED_REFS.refresh();
+            Metrics.reset();
+            start = System.nanoTime();
+            Main.run(args);
+        } catch (GitletException excp) {
+            message(excp.getMessage());
+            // The command may have stopped halfway through changing the cached index.
+            ObjectCache.clear();
+        } catch (RuntimeException excp) {
+            excp.printStackTrace();
+            ObjectCache.clear();
+        } finally {
+            if (report) {
+                Metrics.report(System.err);
+            }
+            if (!traceTarget.isEmpty()) {
+                Metrics.trace(traceTarget, args.length > 0 ? args[0] : "",
+                        System.nanoTime() - start);
+            }
+            System.out.flush();
+            System.err.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        reply.write(END);
+        reply.flush();
+    }
+
+    /** Writes what is written to it as frames of one stream of a reply. */
+    private static class Frames extends OutputStream {
+        /** The reply the frames are written to. */
+        private final DataOutputStream reply;
+
+        /** The stream of the frames. */
+        private final int stream;
+
+        /** Constructor of Frames. */
+        Frames(DataOutputStream reply, int stream) {
+            this.reply = reply;
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            reply.write(stream);
+            reply.writeInt(length);
+            reply.write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            reply.flush();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package gitlet;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/**
+ * Encodes one version of a file as a binary delta against another.
+ * A delta is a list of instructions that rebuild the target from the base:
+ * COPY takes a range of the base, and INSERT carries bytes that are new.
+ * Matches are found through an index of the base's aligned blocks, and every
+ * match is extended in both directions as far as the bytes agree, so an edit
+ * in a long file costs a few instructions around it.
+ *
+ * Layout of an encoded delta:
+ *   type, version                      'D', 1
+ *   base length, target length         varints
+ *   instructions                       COPY offset length | INSERT length bytes
+ * @author Ziqi He
+ */
+public class Delta {
+    /** Type tag of the delta format. */
+    static final int TYPE = 'D';
+
+    /** Version of the delta format. */
+    static final int VERSION = 1;
+
+    /** Instruction copying a range of the base. */
+    private static final int COPY = 0;
+
+    /** Instruction inserting literal bytes. */
+    private static final int INSERT = 1;
+
+    /** Size of the blocks of the base that matches are looked up by. */
+    private static final int BLOCK = 16;
+
+    /**
+     * Computes the delta that turns the base into the target.
+     * @param base
+     * @param target
+     * @return the encoded delta
+     */
+    public static byte[] encode(byte[] base, byte[] target) {
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int offset = 0; offset + BLOCK <= base.length; offset += BLOCK) {
+            blocks.putIfAbsent(hashBlock(base, offset), offset);
+        }
+
+        Codec codec = new Codec(TYPE, VERSION);
+        codec.writeVarint(base.length);
+        codec.writeVarint(target.length);
+        int insertStart = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            Integer match = blocks.get(hashBlock(target, i));
+            if (match == null || !Arrays.equals(base, match, match + BLOCK, target, i, i + BLOCK)) {
+                i += 1;
+                continue;
+            }
+            // Grow the match backwards into the pending insert, then forwards.
+            int start = i;
+            int baseStart = match;
+            while (start > insertStart && baseStart > 0 && target[start - 1] == base[baseStart - 1]) {
+                start -= 1;
+                baseStart -= 1;
+            }
+            int end = i + BLOCK;
+            int baseEnd = match + BLOCK;
+            while (end < target.length && baseEnd < base.length && target[end] == base[baseEnd]) {
+                end += 1;
+                baseEnd += 1;
+            }
+            writeInsert(codec, target, insertStart, start);
+            codec.writeByte(COPY);
+            codec.writeVarint(baseStart);
+            codec.writeVarint(end - start);
+            i = end;
+            insertStart = end;
+        }
+        writeInsert(codec, target, insertStart, target.length);
+        return codec.toByteArray();
+    }
+
+    /**
+     * Rebuilds the target from the base and a delta.
+     * @param base
+     * @param delta the encoded delta
+     * @return the target
+     */
+    public static byte[] apply(byte[] base, byte[] delta) {
+        Codec codec = new Codec(delta);
+        codec.readHeader(TYPE, VERSION);
+        if (codec.readLength() != base.length) {
+            throw error("Delta does not match its base");
+        }
+        byte[] target = new byte[codec.readLength()];
+        int position = 0;
+        while (position < target.length) {
+            int instruction = codec.readByte();
+            if (instruction == COPY) {
+                int offset = codec.readLength();
+                int length = codec.readLength();
+                System.arraycopy(base, offset, target, position, length);
+                position += length;
+            } else {
+                byte[] inserted = codec.readBytes(codec.readLength());
+                System.arraycopy(inserted, 0, target, position, inserted.length);
+                position += inserted.length;
+            }
+        }
+        return target;
+    }
+
+    /** Writes an INSERT of TARGET[START, END) to CODEC, unless it is empty. */
+    private static void writeInsert(Codec codec, byte[] target, int start, int end) {
+        if (start == end) {
+            return;
+        }
+        codec.writeByte(INSERT);
+        codec.writeVarint(end - start);
+        codec.writeBytes(Arrays.copyOfRange(target, start, end));
+    }
+
+    /** Returns a hash of the BLOCK bytes of DATA starting at OFFSET. */
+    private static int hashBlock(byte[] data, int offset) {
+        int hash = 0;
+        for (int i = offset; i < offset + BLOCK; i += 1) {
+            hash = 31 * hash + data[i];
+        }
+        return hash;
+    }
+}
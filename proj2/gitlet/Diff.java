@@ -0,0 +1,471 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * Handles command gitlet diff [commit id] [commit id].
+ * With two commits, shows the changes from the first to the second; with one,
+ * from that commit to the working directory; with none, from the head commit
+ * to the working directory. Only files tracked in the commit or staged are compared.
+ *
+ * The snapshots are compared by blob hash first, so a file with the same
+ * contents on both sides is never read. A changed file is split into lines
+ * as offsets into its contents, each with a hash, so no string is made for
+ * a line that is not printed. The lines are compared with Myers' algorithm
+ * in linear space: the shortest edit script is split at the middle snake of
+ * the two sequences, found by searching from both ends at once, and each half
+ * is compared in turn. Lines common to the start or end are trimmed first,
+ * which for a small change to a large file leaves little to search.
+ * The hunks are written as they are found, through one buffered writer.
+ * @author Ziqi He
+ */
+public class Diff {
+    /** Number of unchanged lines shown around a change. */
+    static final int CONTEXT = 3;
+
+    /** Number of leading bytes searched for a NUL to tell a binary file. */
+    private static final int BINARY_PROBE = 8000;
+
+    /** Size of the output buffer, in chars. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Where the output goes. */
+    private final Writer out;
+
+    /** Constructor: writes to OUT. */
+    private Diff(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Prints the changes between two commits, or between a commit and the working directory.
+     * @param commitIDs no ids, one id or two ids, each of which may be abbreviated
+     */
+    public static void diff(String... commitIDs) {
+        Map<String, String> before = snapshot(commitIDs.length > 0
+                ? commitIDs[0] : Branch.getLastCommit(Branch.getCurrentBranch()));
+        Map<String, String> after;
+        boolean working = commitIDs.length < 2;
+        if (working) {
+            // The tracked files are those of the head commit and the staged ones,
+            // and the files of the commit compared against are looked at too.
+            Index index = Index.fromFile();
+            Set<String> paths = new HashSet<>(before.keySet());
+            if (commitIDs.length > 0) {
+                paths.addAll(snapshot(Branch.getLastCommit(Branch.getCurrentBranch())).keySet());
+            }
+            paths.addAll(index.stagingArea.keySet());
+            after = new HashMap<>();
+            for (Map.Entry<String, String> file : WorkTree.scan(index, paths).entrySet()) {
+                if (paths.contains(file.getKey())) {
+                    after.put(file.getKey(), file.getValue());
+                }
+            }
+            // Keep the stat data of files that had to be hashed, if the index is free.
+            if (index.statCacheChanged) {
+                index.tryWriteIndex();
+            }
+        } else {
+            after = snapshot(commitIDs[1]);
+        }
+
+        Diff diff = new Diff(new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8), BUFFER_SIZE));
+        Set<String> paths = new TreeSet<>(before.keySet());
+        paths.addAll(after.keySet());
+        try {
+            for (String path : paths) {
+                String hashBefore = before.get(path);
+                String hashAfter = after.get(path);
+                if (hashBefore != null && hashBefore.equals(hashAfter)) {
+                    continue;
+                }
+                byte[] contentsBefore = hashBefore == null ? new byte[0] : Repository.readBlob(hashBefore);
+                byte[] contentsAfter = hashAfter == null ? new byte[0]
+                        : working ? readContents(join(Repository.CWD, path)) : Repository.readBlob(hashAfter);
+                diff.writeFile(path, hashBefore != null, contentsBefore, hashAfter != null, contentsAfter);
+            }
+            diff.out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the files of the commit COMMITID, which may be abbreviated. */
+    private static Map<String, String> snapshot(String commitID) {
+        String hashOfCommit = Commit.resolve(commitID);
+        Commit commit = hashOfCommit == null ? null : Commit.readCommit(hashOfCommit);
+        if (commit == null) {
+            throw error("No commit with that id exists.");
+        }
+        return commit.getTrackedFiles();
+    }
+
+    /** Writes the header and hunks of one changed file. */
+    private void writeFile(String path, boolean existedBefore, byte[] before,
+                           boolean existsAfter, byte[] after) throws IOException {
+        out.write("diff --gitlet a/" + path + " b/" + path + "\n");
+        if (isBinary(before) || isBinary(after)) {
+            out.write("Binary files " + (existedBefore ? "a/" + path : "/dev/null") + " and "
+                    + (existsAfter ? "b/" + path : "/dev/null") + " differ\n");
+            return;
+        }
+        out.write("--- " + (existedBefore ? "a/" + path : "/dev/null") + "\n");
+        out.write("+++ " + (existsAfter ? "b/" + path : "/dev/null") + "\n");
+        Lines a = new Lines(before);
+        Lines b = new Lines(after);
+        boolean[][] changes = compare(a, b);
+        writeHunks(a, changes[0], b, changes[1]);
+    }
+
+    /** Returns whether CONTENTS has a NUL byte near its start. */
+    private static boolean isBinary(byte[] contents) {
+        for (int i = 0; i < Math.min(contents.length, BINARY_PROBE); i += 1) {
+            if (contents[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the changed lines in hunks, with CONTEXT unchanged lines around each change.
+     * Changes closer than twice CONTEXT lines share a hunk. A hunk is written as
+     * soon as the next change is found to be too far away to join it.
+     */
+    private void writeHunks(Lines a, boolean[] deleted, Lines b, boolean[] inserted) throws IOException {
+        int i = 0;
+        int j = 0;
+        // Start of the hunk being gathered in each file, or -1 before the first change.
+        int hunkA = -1;
+        int hunkB = -1;
+        // End of the last change in each file.
+        int endA = 0;
+        int endB = 0;
+        while (true) {
+            // Unchanged lines are paired off until the next change.
+            while (i < a.size() && j < b.size() && !deleted[i] && !inserted[j]) {
+                i += 1;
+                j += 1;
+            }
+            boolean done = (i == a.size() || !deleted[i]) && (j == b.size() || !inserted[j]);
+            if (hunkA >= 0 && (done || i - endA > 2 * CONTEXT)) {
+                writeHunk(a, deleted, hunkA, Math.min(a.size(), endA + CONTEXT),
+                        b, inserted, hunkB, Math.min(b.size(), endB + CONTEXT));
+                hunkA = -1;
+            }
+            if (done) {
+                return;
+            }
+            if (hunkA < 0) {
+                hunkA = Math.max(0, i - CONTEXT);
+                hunkB = Math.max(0, j - CONTEXT);
+            }
+            while (i < a.size() && deleted[i]) {
+                i += 1;
+            }
+            while (j < b.size() && inserted[j]) {
+                j += 1;
+            }
+            endA = i;
+            endB = j;
+        }
+    }
+
+    /** Writes the hunk of lines [STARTA, ENDA) of A and [STARTB, ENDB) of B. */
+    private void writeHunk(Lines a, boolean[] deleted, int startA, int endA,
+                           Lines b, boolean[] inserted, int startB, int endB) throws IOException {
+        out.write("@@ -" + range(startA, endA) + " +" + range(startB, endB) + " @@\n");
+        int i = startA;
+        int j = startB;
+        while (i < endA || j < endB) {
+            if (i < endA && deleted[i]) {
+                writeLine('-', a, i);
+                i += 1;
+            } else if (j < endB && inserted[j]) {
+                writeLine('+', b, j);
+                j += 1;
+            } else {
+                writeLine(' ', a, i);
+                i += 1;
+                j += 1;
+            }
+        }
+    }
+
+    /** Returns the line range of a hunk header, where an empty range names the line before it. */
+    private static String range(int start, int end) {
+        int count = end - start;
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+
+    /** Writes line I of LINES after MARK. */
+    private void writeLine(char mark, Lines lines, int i) throws IOException {
+        out.write(mark);
+        out.write(lines.get(i));
+        out.write('\n');
+        if (!lines.endsWithNewline(i)) {
+            out.write("\\ No newline at end of file\n");
+        }
+    }
+
+    /**
+     * Finds a shortest edit script between two sequences of lines.
+     * @param a the lines before
+     * @param b the lines after
+     * @return two arrays: which lines of A are deleted, and which lines of B are inserted
+     */
+    static boolean[][] compare(Lines a, Lines b) {
+        boolean[][] changes = {new boolean[a.size()], new boolean[b.size()]};
+        new Myers(a, b, changes[0], changes[1]).compare(0, a.size(), 0, b.size());
+        return changes;
+    }
+
+    /**
+     * The lines of a file, as the offsets at which they start in its contents
+     * and the hash of each, so that two lines are compared by their hashes
+     * and only compared byte by byte when the hashes are equal.
+     */
+    static class Lines {
+        /** The contents of the file. */
+        private final byte[] contents;
+
+        /** Start of each line, followed by the end of the contents. */
+        private final int[] starts;
+
+        /** Hash of each line. */
+        private final int[] hashes;
+
+        /** Number of lines. */
+        private final int size;
+
+        /**
+         * Splits contents into lines at each newline.
+         * @param contents
+         */
+        Lines(byte[] contents) {
+            this.contents = contents;
+            int count = 0;
+            for (byte c : contents) {
+                if (c == '\n') {
+                    count += 1;
+                }
+            }
+            boolean partial = contents.length > 0 && contents[contents.length - 1] != '\n';
+            size = partial ? count + 1 : count;
+            starts = new int[size + 1];
+            hashes = new int[size];
+            int line = 0;
+            int hash = 0;
+            for (int i = 0; i < contents.length; i += 1) {
+                if (contents[i] == '\n') {
+                    hashes[line] = hash;
+                    line += 1;
+                    starts[line] = i + 1;
+                    hash = 0;
+                } else {
+                    hash = 31 * hash + contents[i];
+                }
+            }
+            if (partial) {
+                hashes[line] = hash;
+            }
+            starts[size] = contents.length;
+        }
+
+        /**
+         * Gets the number of lines.
+         * @return number of lines
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * Gets a line without its newline.
+         * @param i
+         * @return the line
+         */
+        String get(int i) {
+            return new String(contents, starts[i], lineLength(i), StandardCharsets.UTF_8);
+        }
+
+        /** Returns whether line I ends with a newline, which only the last line may lack. */
+        boolean endsWithNewline(int i) {
+            return starts[i + 1] > starts[i] && contents[starts[i + 1] - 1] == '\n';
+        }
+
+        /** Returns the length of line I without its newline. */
+        private int lineLength(int i) {
+            return (endsWithNewline(i) ? starts[i + 1] - 1 : starts[i + 1]) - starts[i];
+        }
+
+        /**
+         * Checks whether line I of these lines equals line J of OTHER.
+         * @param i
+         * @param other
+         * @param j
+         * @return true if the lines have the same bytes, newline included
+         */
+        boolean equals(int i, Lines other, int j) {
+            if (hashes[i] != other.hashes[j]) {
+                return false;
+            }
+            // A last line without a newline differs from the same line with one.
+            int length = starts[i + 1] - starts[i];
+            return length == other.starts[j + 1] - other.starts[j]
+                    && Arrays.equals(contents, starts[i], starts[i] + length,
+                    other.contents, other.starts[j], other.starts[j] + length);
+        }
+    }
+
+    /**
+     * Myers' algorithm in linear space, which marks the changed lines of two
+     * sequences. Diagonal k holds the points where x - y = k; the forward and
+     * backward searches keep the furthest x reached on each diagonal.
+     */
+    private static class Myers {
+        private final Lines a;
+        private final Lines b;
+        private final boolean[] deleted;
+        private final boolean[] inserted;
+
+        /** Furthest x reached on each diagonal searching forward, offset by OFFSET. */
+        private final int[] forward;
+
+        /** Least x reached on each diagonal searching backward, offset by OFFSET. */
+        private final int[] backward;
+
+        /** Index in the arrays of diagonal 0. */
+        private final int offset;
+
+        /** The x and y of the last middle snake found. */
+        private int midX;
+        private int midY;
+
+        Myers(Lines a, Lines b, boolean[] deleted, boolean[] inserted) {
+            this.a = a;
+            this.b = b;
+            this.deleted = deleted;
+            this.inserted = inserted;
+            offset = b.size() + 1;
+            forward = new int[a.size() + b.size() + 3];
+            backward = new int[a.size() + b.size() + 3];
+        }
+
+        /** Marks the changes between lines [XOFF, XLIM) of A and [YOFF, YLIM) of B. */
+        void compare(int xoff, int xlim, int yoff, int ylim) {
+            while (xoff < xlim && yoff < ylim && a.equals(xoff, b, yoff)) {
+                xoff += 1;
+                yoff += 1;
+            }
+            while (xlim > xoff && ylim > yoff && a.equals(xlim - 1, b, ylim - 1)) {
+                xlim -= 1;
+                ylim -= 1;
+            }
+            if (xoff == xlim) {
+                Arrays.fill(inserted, yoff, ylim, true);
+            } else if (yoff == ylim) {
+                Arrays.fill(deleted, xoff, xlim, true);
+            } else {
+                middleSnake(xoff, xlim, yoff, ylim);
+                int x = midX;
+                int y = midY;
+                compare(xoff, x, yoff, y);
+                compare(x, xlim, y, ylim);
+            }
+        }
+
+        /**
+         * Finds a point on a shortest edit script half way through it,
+         * by extending the searches from both corners one edit at a time
+         * until they overlap, and sets midX and midY to it.
+         */
+        private void middleSnake(int xoff, int xlim, int yoff, int ylim) {
+            int dmin = xoff - ylim;
+            int dmax = xlim - yoff;
+            int fmid = xoff - yoff;
+            int bmid = xlim - ylim;
+            int fmin = fmid;
+            int fmax = fmid;
+            int bmin = bmid;
+            int bmax = bmid;
+            boolean odd = ((fmid - bmid) & 1) != 0;
+            forward[offset + fmid] = xoff;
+            backward[offset + bmid] = xlim;
+            while (true) {
+                // One more edit forward.
+                if (fmin > dmin) {
+                    fmin -= 1;
+                    forward[offset + fmin - 1] = -1;
+                } else {
+                    fmin += 1;
+                }
+                if (fmax < dmax) {
+                    fmax += 1;
+                    forward[offset + fmax + 1] = -1;
+                } else {
+                    fmax -= 1;
+                }
+                for (int d = fmax; d >= fmin; d -= 2) {
+                    int low = forward[offset + d - 1];
+                    int high = forward[offset + d + 1];
+                    int x = low >= high ? low + 1 : high;
+                    int y = x - d;
+                    while (x < xlim && y < ylim && a.equals(x, b, y)) {
+                        x += 1;
+                        y += 1;
+                    }
+                    forward[offset + d] = x;
+                    if (odd && bmin <= d && d <= bmax && backward[offset + d] <= x) {
+                        midX = x;
+                        midY = y;
+                        return;
+                    }
+                }
+
+                // One more edit backward.
+                if (bmin > dmin) {
+                    bmin -= 1;
+                    backward[offset + bmin - 1] = Integer.MAX_VALUE;
+                } else {
+                    bmin += 1;
+                }
+                if (bmax < dmax) {
+                    bmax += 1;
+                    backward[offset + bmax + 1] = Integer.MAX_VALUE;
+                } else {
+                    bmax -= 1;
+                }
+                for (int d = bmax; d >= bmin; d -= 2) {
+                    int low = backward[offset + d - 1];
+                    int high = backward[offset + d + 1];
+                    int x = low < high ? low : high - 1;
+                    int y = x - d;
+                    while (x > xoff && y > yoff && a.equals(x - 1, b, y - 1)) {
+                        x -= 1;
+                        y -= 1;
+                    }
+                    backward[offset + d] = x;
+                    if (!odd && fmin <= d && d <= fmax && x <= forward[offset + d]) {
+                        midX = x;
+                        midY = y;
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
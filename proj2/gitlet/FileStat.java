@@ -0,0 +1,88 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Represents the stat data of a file in the working directory,
+ * together with the hash of its contents at the time the stat data was taken.
+ * The index keeps one FileStat per file it has hashed, so a file whose size,
+ * modification time and inode have not changed does not need to be hashed again.
+ * @author Ziqi He
+ */
+public class FileStat implements Serializable {
+    /** Whether the file system reports inode numbers. */
+    private static final boolean HAS_INODES =
+            FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+    /** Size of the file in bytes. */
+    final long size;
+
+    /** Last modification time of the file in nanoseconds since the epoch. */
+    final long modifiedTime;
+
+    /** Inode number of the file, or -1 where the file system has none. */
+    final long inode;
+
+    /** Hash of the file contents. */
+    final String hash;
+
+    /** Constructor */
+    FileStat(long size, long modifiedTime, long inode, String hash) {
+        this.size = size;
+        this.modifiedTime = modifiedTime;
+        this.inode = inode;
+        this.hash = hash;
+    }
+
+    /**
+     * Reads the stat data of the given file.
+     * @param file
+     * @return the stat data without a hash, or null if the file does not exist
+     */
+    public static FileStat of(File file) {
+        try {
+            if (HAS_INODES) {
+                Map<String, Object> attributes =
+                        Files.readAttributes(file.toPath(), "unix:size,lastModifiedTime,ino");
+                return new FileStat((Long) attributes.get("size"),
+                        ((FileTime) attributes.get("lastModifiedTime")).to(TimeUnit.NANOSECONDS),
+                        (Long) attributes.get("ino"), null);
+            }
+            BasicFileAttributes attributes =
+                    Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return new FileStat(attributes.size(),
+                    attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS), -1, null);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a copy of this stat data recording the given hash.
+     * @param hashOfFile
+     * @return the new stat data
+     */
+    public FileStat withHash(String hashOfFile) {
+        return new FileStat(size, modifiedTime, inode, hashOfFile);
+    }
+
+    /**
+     * Checks whether the stat data of the file is unchanged.
+     * @param current the stat data just read from the file
+     * @return true if size, modification time and inode are all the same
+     */
+    public boolean matches(FileStat current) {
+        return current != null
+                && size == current.size
+                && modifiedTime == current.modifiedTime
+                && inode == current.inode;
+    }
+}
@@ -0,0 +1,246 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Handles command gitlet gc [--now].
+ * Deletes the loose objects that nothing refers to any more, such as blobs staged
+ * and then dropped from the staging area, and the commits and trees of removed branches.
+ *
+ * Every object has a position: packed objects the position of their entry in the
+ * pack index, and loose objects follow them in order of hash. The mark phase sets
+ * the bit of every object reachable from the branches and the staging area in a
+ * bitmap over these positions, walking the trees of different commits in parallel.
+ * A bit is set atomically and only its first setter descends into the object,
+ * so a tree shared by many commits is read once. Unreachable loose commits
+ * kept for the grace period are marked as well, with their history. The sweep
+ * phase deletes the loose objects whose bits are clear, and drops the commits
+ * it deleted from the commit-graph; every other commit stays in it.
+ *
+ * Repack moves every loose object into the pack at once, so a packed object only
+ * refers to packed objects, and the walk stops at them: packed objects are never
+ * deleted, and only the part of history committed since the last repack is read.
+ * @author Ziqi He
+ */
+public class GarbageCollector {
+    /**
+     * Unreachable loose objects modified within this many milliseconds are kept,
+     * since another gitlet process may have just stored them and not yet
+     * recorded them in the index or a commit.
+     */
+    static final long GRACE_PERIOD = 60 * 60 * 1000;
+
+    /** The object store being collected. */
+    private final ObjectStore store = Repository.OBJECT_STORE;
+
+    /** Number of objects in the pack, which come first in the positions. */
+    private final int packed;
+
+    /** Hashes of the loose objects, sorted, which follow the packed objects. */
+    private final String[] loose;
+
+    /** One bit per position, set when the object is reachable. */
+    private final AtomicLongArray marks;
+
+    /** Positions in the commit-graph of the commits whose history has been marked. */
+    private final BitSet walked = new BitSet();
+
+    /** Constructor: numbers the objects in the store. */
+    private GarbageCollector() {
+        packed = store.getPack().size();
+        loose = store.looseObjects().toArray(new String[0]);
+        Arrays.sort(loose);
+        marks = new AtomicLongArray((packed + loose.length + 63) / 64);
+    }
+
+    /**
+     * Deletes the unreachable loose objects.
+     * @param now whether to delete objects modified within the grace period too
+     * @return the number of objects deleted and the number of bytes they took
+     */
+    public static long[] collect(boolean now) {
+        GarbageCollector collector = new GarbageCollector();
+        long cutoff = now ? Long.MAX_VALUE : System.currentTimeMillis() - GRACE_PERIOD;
+        collector.markAll();
+        collector.markRecent(cutoff);
+        return collector.sweep(cutoff);
+    }
+
+    /** Marks every object reachable from the branches and the staging area. */
+    private void markAll() {
+        CommitGraph graph = Repository.COMMIT_GRAPH;
+        List<Integer> heads = new ArrayList<>();
+        for (String branchName : Branch.listBranches()) {
+            heads.add(graph.add(Branch.getLastCommit(branchName)));
+        }
+        markCommits(heads);
+        for (String hashOfBlob : Index.fromFile().stagingArea.values()) {
+            markBlob(hashOfBlob);
+        }
+    }
+
+    /**
+     * Marks the history of the unreachable loose commits that are kept for
+     * the grace period, so a kept commit never refers to a deleted one.
+     */
+    private void markRecent(long cutoff) {
+        CommitGraph graph = Repository.COMMIT_GRAPH;
+        List<Integer> recent = new ArrayList<>();
+        for (int i = 0; i < loose.length; i += 1) {
+            if (!isMarked(packed + i) && store.looseFile(loose[i]).lastModified() >= cutoff) {
+                int position = graph.find(loose[i]);
+                if (position != CommitGraph.NONE) {
+                    recent.add(position);
+                }
+            }
+        }
+        markCommits(recent);
+    }
+
+    /**
+     * Marks the commits reachable from the given commits that are not yet
+     * marked, walking the parents on the commit-graph, so no commit is read
+     * to find them, and then their snapshots in parallel.
+     * @param heads positions of the commits to start from
+     */
+    private void markCommits(List<Integer> heads) {
+        CommitGraph graph = Repository.COMMIT_GRAPH;
+        List<Integer> stack = new ArrayList<>(heads);
+        List<String> commits = new ArrayList<>();
+        while (!stack.isEmpty()) {
+            int position = stack.remove(stack.size() - 1);
+            if (position == CommitGraph.NONE || walked.get(position)) {
+                continue;
+            }
+            walked.set(position);
+            commits.add(graph.hashAt(position));
+            stack.add(graph.parent(position, 0));
+            stack.add(graph.parent(position, 1));
+        }
+        commits.parallelStream().forEach(this::markCommit);
+    }
+
+    /** Marks a commit and, if it is loose, its snapshot. */
+    private void markCommit(String hashOfCommit) {
+        if (!mark(hashOfCommit)) {
+            return;
+        }
+        Commit commit = Commit.readCommit(hashOfCommit);
+        String hashOfTree = commit.getStoredTree();
+        if (hashOfTree != null) {
+            new MarkTree(hashOfTree).invoke();
+        } else {
+            // A commit written before trees lists its blobs itself.
+            for (String hashOfBlob : commit.getTrackedFiles().values()) {
+                markBlob(hashOfBlob);
+            }
+        }
+    }
+
+    /** Marks a blob and, if it is a loose chunked blob, its chunks. */
+    private void markBlob(String hashOfBlob) {
+        if (!mark(hashOfBlob)) {
+            return;
+        }
+        for (String chunk : store.looseChunks(hashOfBlob)) {
+            mark(chunk);
+        }
+    }
+
+    /**
+     * Sets the bit of an object.
+     * @param hash
+     * @return true if the object is loose and this call set its bit,
+     * so the caller should mark what it refers to
+     */
+    private boolean mark(String hash) {
+        int position = store.getPack().find(hash);
+        boolean isLoose = position < 0;
+        if (isLoose) {
+            int index = Arrays.binarySearch(loose, hash);
+            if (index < 0) {
+                // A missing object: there is nothing to keep.
+                return false;
+            }
+            position = packed + index;
+        }
+        int word = position >>> 6;
+        long bit = 1L << position;
+        long old;
+        do {
+            old = marks.get(word);
+            if ((old & bit) != 0) {
+                return false;
+            }
+        } while (!marks.compareAndSet(word, old, old | bit));
+        return isLoose;
+    }
+
+    /**
+     * Deletes the loose objects whose bits are clear and that were modified before CUTOFF,
+     * and drops the commits among them from the commit-graph.
+     */
+    private long[] sweep(long cutoff) {
+        CommitGraph graph = Repository.COMMIT_GRAPH;
+        BitSet drop = new BitSet();
+        long removed = 0;
+        long bytes = 0;
+        for (int i = 0; i < loose.length; i += 1) {
+            if (isMarked(packed + i)) {
+                continue;
+            }
+            File file = store.looseFile(loose[i]);
+            if (file.lastModified() >= cutoff) {
+                continue;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                removed += 1;
+                bytes += length;
+                int position = graph.find(loose[i]);
+                if (position != CommitGraph.NONE) {
+                    drop.set(position);
+                }
+            }
+        }
+        graph.remove(drop);
+        return new long[]{removed, bytes};
+    }
+
+    /** Returns whether the bit of the object at POSITION is set. */
+    private boolean isMarked(int position) {
+        return (marks.get(position >>> 6) & (1L << position)) != 0;
+    }
+
+    /** Marks a tree, forking a task for each subtree. */
+    private class MarkTree extends RecursiveAction {
+        /** The tree to mark. */
+        private final String hashOfTree;
+
+        MarkTree(String hashOfTree) {
+            this.hashOfTree = hashOfTree;
+        }
+
+        @Override
+        protected void compute() {
+            if (!mark(hashOfTree)) {
+                return;
+            }
+            Tree tree = Tree.readTree(hashOfTree);
+            for (String hashOfBlob : tree.getBlobs()) {
+                markBlob(hashOfBlob);
+            }
+            List<MarkTree> subtrees = new ArrayList<>();
+            for (String hashOfSubtree : tree.getSubtrees()) {
+                subtrees.add(new MarkTree(hashOfSubtree));
+            }
+            invokeAll(subtrees);
+        }
+    }
+}
@@ -2,10 +2,17 @@ package gitlet;
 
 import java.io.File;
 import java.io.Serializable;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
 
 import static gitlet.Utils.*;
 
@@ -18,76 +25,184 @@ import static gitlet.Utils.*;
  * @author Ziqi He
  */
 public class Index implements Serializable {
+    /** Pinned so that indexes and commits written with Java serialization can still be read. */
+    private static final long serialVersionUID = 7646722733983027669L;
+
+    /** Type tag of the binary index format. */
+    static final int TYPE = 'I';
+
+    /** Version of the binary index format. */
+    static final int VERSION = 1;
+
     /** The data structure represents staging area. */
     HashMap<String, String> stagingArea;
 
     /** The data structure represents removal area. */
     List<String> removalArea;
 
+    /**
+     * The stat data of working files whose contents have been hashed,
+     * used to skip hashing files that have not changed since.
+     */
+    HashMap<String, FileStat> statCache;
+
+    /**
+     * Modification time of the index file when it was last read or written, in nanoseconds.
+     * A file modified at or after this time may have changed without its stat data
+     * changing (the racy-clean case), so its cached hash is not trusted.
+     */
+    transient long indexModifiedTime;
+
+    /** Whether the stat cache has changed since the index was read. */
+    transient boolean statCacheChanged;
+
     /** Constructor of Index */
     public Index() {
         stagingArea = new HashMap<>();
         removalArea = new ArrayList<>();
+        statCache = new HashMap<>();
         this.writeIndex();
     }
 
+    /** Constructor of an index decoded from its binary format. */
+    Index(HashMap<String, String> stagingArea, List<String> removalArea,
+          HashMap<String, FileStat> statCache) {
+        this.stagingArea = stagingArea;
+        this.removalArea = removalArea;
+        this.statCache = statCache;
+    }
+
     /**
      * Adds file to staging area.
      * @param fileName
      */
     public void addFile(String fileName) {
-        File currentFile = join(Repository.CWD, fileName);
-        // If the file doesn't exist.
-        if (!currentFile.exists()) {
+        addFiles(Collections.singletonList(fileName));
+    }
+
+    /**
+     * Adds files to staging area.
+     * A path may name a file, a directory, whose files are all added, or a glob
+     * such as "src/*.java", which is matched against the paths of the working files.
+     * The files are hashed and stored in parallel, and the index is written once
+     * at the end. Nothing is staged if a path matches no file.
+     * @param paths
+     */
+    public void addFiles(List<String> paths) {
+        List<String> fileNames = expandPaths(paths);
+        // If a file doesn't exist.
+        if (fileNames == null) {
             message("File does not exist.");
             return;
         }
 
-        String hashOfFile = Repository.getHashOfFileContent(currentFile);
-
-        // If the file is identical to already-staged file, return.
-        if (hashOfFile.equals(this.stagingArea.get(fileName))) {
-            System.out.println("You are adding the identical file to the staging area.");
-            return;
-        }
+        // If the stat data of a file is unchanged and its blob is stored,
+        // the cached hash is used and the file is not read at all.
+        // Otherwise hash the file and store its blob in one pass over the contents.
+        // The blob path is made up of the hash value of blob, and it is in the "object" directory.
+        // The first two is directory name, the rest is file name.
+        // A blob that is already stored is not written again.
+        // The stat cache is only read here; new entries are put in after.
+        String[] hashes = new String[fileNames.size()];
+        FileStat[] stats = new FileStat[fileNames.size()];
+        IntStream.range(0, fileNames.size()).parallel().forEach(i -> {
+            String fileName = fileNames.get(i);
+            File currentFile = join(Repository.CWD, fileName);
+            hashes[i] = getCachedHash(fileName, currentFile);
+            if (hashes[i] == null || !Repository.OBJECT_STORE.contains(hashes[i])) {
+                stats[i] = FileStat.of(currentFile);
+                hashes[i] = Repository.setBlob(fileName);
+            }
+        });
 
-        // If the current working version of the file is identical to
-        // the version in the current commit, will not stage it to be added,
-        // and remove it from the staging area if it is already there.
-        // (as can happen when a file is changed, added, and the changed back to it's original)
+        // The messages are only shown when a single file is added.
+        boolean verbose = fileNames.size() == 1;
         String hashOfLastCommit = Branch.getLastCommit(Branch.getCurrentBranch());
         Commit lastCommit = Commit.readCommit(hashOfLastCommit);
+        for (int i = 0; i < hashes.length; i += 1) {
+            String fileName = fileNames.get(i);
+            String hashOfFile = hashes[i];
+            if (stats[i] != null) {
+                statCache.put(fileName, stats[i].withHash(hashOfFile));
+            }
 
-        String hashOfFileInLastCommit = lastCommit.getIndex().stagingArea.get(fileName);
-        if (hashOfFileInLastCommit != null && hashOfFileInLastCommit.equals(hashOfFile)) {
-            System.out.println("You are adding the identical file to the version in the current commit.");
-            // remove the identical blob in staging area.
-            this.stagingArea.remove(fileName);
-            this.writeIndex();
-            return;
-        };
+            // If the file is identical to already-staged file, skip it.
+            if (hashOfFile.equals(this.stagingArea.get(fileName))) {
+                if (verbose) {
+                    System.out.println("You are adding the identical file to the staging area.");
+                }
+                continue;
+            }
 
-        // If the file already-staged, and the contents are different,
-        // overwrites the previous entry in staging area,
-        // deletes the old blob in objects folder.
-        if (this.stagingArea.containsKey(fileName)) {
-            String oldHash = this.stagingArea.get(fileName);
-            Repository.deleteBlob(oldHash);
-        }
+            // If the current working version of the file is identical to
+            // the version in the current commit, will not stage it to be added,
+            // and remove it from the staging area if it is already there.
+            // (as can happen when a file is changed, added, and the changed back to it's original)
+            String hashOfFileInLastCommit = lastCommit.getFileHash(fileName);
+            if (hashOfFileInLastCommit != null && hashOfFileInLastCommit.equals(hashOfFile)) {
+                if (verbose) {
+                    System.out.println("You are adding the identical file to the version in the current commit.");
+                }
+                // remove the identical blob in staging area.
+                this.stagingArea.remove(fileName);
+                continue;
+            }
 
-        // Get the hash value of the file.
-        // The blob path is made up of the hash value of blob, and it is in the "object" directory.
-        // The first two is directory name, the rest is file name.
-        Repository.setBlob(fileName);
-
-        // The index has been created in gitlet initial,
-        // so here every time we read from file and put new file into map.
-        this.stagingArea.put(fileName, hashOfFile);
+            // If the file already-staged, and the contents are different,
+            // overwrites the previous entry in staging area.
+            // The old blob is left for gc, since a commit on another branch may use it too.
+            this.stagingArea.put(fileName, hashOfFile);
+        }
 
         // Serialize the index to store information.
         writeIndex();
     }
 
+    /**
+     * Turns the paths given to add into the working files they name.
+     * @param paths files, directories or globs, relative to the working directory
+     * @return the files, or null if a path matches no file
+     */
+    private List<String> expandPaths(List<String> paths) {
+        TreeSet<String> fileNames = new TreeSet<>();
+        Set<String> workingFiles = null;
+        for (String path : paths) {
+            File file = join(Repository.CWD, path);
+            boolean isGlob = path.chars().anyMatch(c -> "*?[{".indexOf(c) >= 0);
+            if (file.isFile() && !isGlob) {
+                fileNames.add(path);
+                continue;
+            }
+            if (!file.isDirectory() && !isGlob) {
+                return null;
+            }
+            if (workingFiles == null) {
+                workingFiles = WorkTree.scan(this, Collections.emptySet()).keySet();
+            }
+            int found = fileNames.size();
+            if (isGlob) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path);
+                for (String workingFile : workingFiles) {
+                    if (matcher.matches(Paths.get(workingFile))) {
+                        fileNames.add(workingFile);
+                    }
+                }
+            } else {
+                String directory = Repository.CWD.toPath().toAbsolutePath()
+                        .relativize(file.toPath().toAbsolutePath().normalize()).toString();
+                String prefix = directory.isEmpty() ? "" : directory + "/";
+                for (String workingFile : workingFiles) {
+                    if (workingFile.startsWith(prefix)) {
+                        fileNames.add(workingFile);
+                    }
+                }
+            }
+            if (fileNames.size() == found && !file.isDirectory()) {
+                return null;
+            }
+        }
+        return new ArrayList<>(fileNames);
+    }
 
     /**
      * Unstage the file if it is currently staged for addition.
@@ -106,7 +221,7 @@ public class Index implements Serializable {
 
         Commit currentCommit = Commit.readCommit(Branch.getLastCommit(Branch.getCurrentBranch()));
         if (
-                !currentCommit.getIndex().stagingArea.containsKey(fileName)
+                currentCommit.getFileHash(fileName) == null
                 && !this.stagingArea.containsKey(fileName)
         ) {
             message("No reason to remove the file.");
@@ -114,42 +229,193 @@ public class Index implements Serializable {
         }
 
         // Un-stage the file if it is currently staged for addition.
+        // Its blob is left for gc, since a commit may use it too.
         if (this.stagingArea.containsKey(fileName)) {
-            Repository.deleteBlob(this.stagingArea.get(fileName));
             this.stagingArea.remove(fileName);
             this.writeIndex();
         }
 
         // If the file is tracked in the current commit,
         // remove the file if the user has not already done so.
-        if (currentCommit.getIndex().stagingArea.containsKey(fileName)) {
-            this.removalArea.add(fileName);
-            restrictedDelete(currentFile);
+        if (currentCommit.getFileHash(fileName) != null) {
+            if (!this.removalArea.contains(fileName)) {
+                this.removalArea.add(fileName);
+            }
+            this.writeIndex();
+            Repository.deleteWorkingFile(fileName);
         }
     }
 
     /**
-     * Reads in and deserializes the index from file.
+     * Gets the hash of the contents of a working file, hashing it only if its
+     * stat data has changed since it was last hashed.
+     * The stat cache is updated, but not saved; call writeIndex to keep it.
+     * @param fileName
+     * @return the hash, or null if the file does not exist
+     */
+    public String getHashOfFile(String fileName) {
+        File file = join(Repository.CWD, fileName);
+        String hashOfFile = getCachedHash(fileName, file);
+        if (hashOfFile != null) {
+            return hashOfFile;
+        }
+        // Take the stat data before reading, so a change made while hashing
+        // leaves a stale entry that is rehashed next time.
+        FileStat stat = FileStat.of(file);
+        if (stat == null) {
+            return null;
+        }
+        hashOfFile = Repository.getHashOfFileContent(file);
+        statCache.put(fileName, stat.withHash(hashOfFile));
+        statCacheChanged = true;
+        return hashOfFile;
+    }
+
+    /**
+     * Looks up the cached hash of a working file.
+     * @param fileName
+     * @param file
+     * @return the cached hash if the stat data is unchanged and not racy, null otherwise
+     */
+    String getCachedHash(String fileName, File file) {
+        FileStat cached = statCache.get(fileName);
+        if (cached == null || cached.modifiedTime >= indexModifiedTime) {
+            return null;
+        }
+        return cached.matches(FileStat.of(file)) ? cached.hash : null;
+    }
+
+    /**
+     * Reads in and decodes the index from file.
      * @return Index object
      */
     public static Index fromFile() {
-        return readObject(Repository.INDEX, Index.class);
+        // The index this command has already read or written is not read again.
+        Index cached = ObjectCache.getIndex();
+        if (cached != null) {
+            return cached;
+        }
+        byte[] contents = readContents(Repository.INDEX);
+        Index index = fromBytes(contents);
+        ObjectCache.putIndex(index);
+        return index;
     }
 
     /**
      * Saves the index to file.
      */
     public void writeIndex() {
-        writeObject(Repository.INDEX, this);
+        ObjectCache.write(Collections.emptyMap(), this);
+    }
+
+    /**
+     * Saves the index to file unless another gitlet process holds its lock or
+     * has changed it since it was read, for commands that only read the index
+     * but keep the stat data they gathered, which can be gathered again later.
+     * @return whether the index was saved
+     */
+    public boolean tryWriteIndex() {
+        try {
+            writeIndex();
+            return true;
+        } catch (GitletException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * Encodes the index file in the binary index format.
+     * @return the encoded index
+     */
+    public byte[] toBytes() {
+        Codec codec = new Codec(TYPE, VERSION);
+        encode(codec, true);
+        return codec.toByteArray();
+    }
+
+    /**
+     * Decodes an index file, which may have been written with Java serialization.
+     * @param encoded
+     * @return Index object
+     */
+    public static Index fromBytes(byte[] encoded) {
+        if (Codec.isSerialized(encoded)) {
+            Index index = deserialize(encoded, Index.class);
+            // Indexes written before the stat cache existed have no cache.
+            if (index.statCache == null) {
+                index.statCache = new HashMap<>();
+            }
+            return index;
+        }
+        Codec codec = new Codec(encoded);
+        codec.readHeader(TYPE, VERSION);
+        return decode(codec, true);
+    }
+
+    /**
+     * Writes the staging area, the removal area and, if asked for, the stat cache.
+     * The staging area is a sorted path table followed by raw hashes.
+     * @param codec
+     * @param withStatCache
+     */
+    void encode(Codec codec, boolean withStatCache) {
+        codec.writePathTable(stagingArea);
+        codec.writeStrings(removalArea);
+        if (!withStatCache) {
+            return;
+        }
+        List<String> paths = new ArrayList<>(statCache.keySet());
+        Collections.sort(paths);
+        codec.writeVarint(paths.size());
+        for (String path : paths) {
+            FileStat stat = statCache.get(path);
+            codec.writeString(path);
+            codec.writeVarint(stat.size);
+            codec.writeVarint(stat.modifiedTime);
+            codec.writeVarint(stat.inode + 1);
+            codec.writeHash(stat.hash);
+        }
+    }
+
+    /**
+     * Reads an index written by encode.
+     * @param codec
+     * @param withStatCache
+     * @return Index object
+     */
+    static Index decode(Codec codec, boolean withStatCache) {
+        HashMap<String, String> stagingArea = new HashMap<>();
+        codec.readPathTable(stagingArea);
+        List<String> removalArea = new ArrayList<>();
+        codec.readStrings(removalArea);
+        HashMap<String, FileStat> statCache = new HashMap<>();
+        if (withStatCache) {
+            int size = codec.readLength();
+            for (int i = 0; i < size; i += 1) {
+                String path = codec.readString();
+                long fileSize = codec.readVarint();
+                long modifiedTime = codec.readVarint();
+                long inode = codec.readVarint() - 1;
+                statCache.put(path, new FileStat(fileSize, modifiedTime, inode, codec.readHash()));
+            }
+        }
+        return new Index(stagingArea, removalArea, statCache);
     }
 
     /**
      * Clears the index, i.e. the staging area.
      */
     public void clearIndex() {
+        clear();
+        writeIndex();
+    }
+
+    /**
+     * Clears the staging area and the removal area, without saving the index.
+     */
+    public void clear() {
         this.stagingArea.clear();
         this.removalArea.clear();
-        writeIndex();
     }
 
     /**
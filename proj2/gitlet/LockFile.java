@@ -0,0 +1,149 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * Replaces a file, such as the index or a ref, so that a crash or another gitlet
+ * process never sees it half written.
+ * The new contents are written to a lock file beside it, named with ".lock" added,
+ * which is created only if it does not exist yet, so only one process can be
+ * replacing the file at a time. The lock file is synced to disk and then renamed
+ * over the file, which atomically swaps the old contents for the new.
+ * A crash leaves the old file and a stale lock file, which must be deleted by hand.
+ * @author Ziqi He
+ */
+public class LockFile {
+    /** Added to the name of a file to name its lock file. */
+    static final String SUFFIX = ".lock";
+
+    /**
+     * Whether lock files are synced to disk before they are renamed.
+     * Set the system property gitlet.fsync to false to turn syncing off,
+     * as on a file system that does not survive a crash anyway.
+     */
+    static final boolean SYNC = !"false".equals(System.getProperty("gitlet.fsync"));
+
+    /** The file to replace. */
+    private final File target;
+
+    /** The lock file. */
+    private final File lock;
+
+    /** The open lock file, or null once it is closed. */
+    private FileChannel channel;
+
+    /** Whether the lock is released, by renaming or deleting the lock file. */
+    private boolean released;
+
+    /**
+     * Takes the lock on a file by creating its lock file.
+     * @param target the file to replace
+     */
+    public LockFile(File target) {
+        this.target = target;
+        this.lock = new File(target.getPath() + SUFFIX);
+        try {
+            channel = FileChannel.open(lock.toPath(),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (FileAlreadyExistsException excp) {
+            throw error("Unable to lock %s: another gitlet process is running, "
+                    + "or one crashed and left it behind.", lock);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Writes the new contents of the file to the lock file.
+     * @param contents
+     */
+    public void write(byte[] contents) {
+        ByteBuffer buffer = ByteBuffer.wrap(contents);
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            Metrics.count(Metrics.FILES_WRITTEN);
+            Metrics.count(Metrics.BYTES_WRITTEN, contents.length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Syncs the lock file to disk, so its contents survive a crash once it is renamed.
+     */
+    public void sync() {
+        if (!SYNC) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            channel.force(false);
+            Metrics.count(Metrics.FSYNCS);
+            Metrics.time(Metrics.FSYNC_NANOS, start);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the file with the lock file, which releases the lock.
+     * The lock file should be synced first.
+     */
+    public void rename() {
+        try {
+            channel.close();
+            channel = null;
+            Files.move(lock.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            released = true;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the lock file, leaving the file as it was.
+     * Does nothing once the lock file has been renamed, but still deletes it
+     * if closing it succeeded and the rename failed.
+     */
+    public void rollback() {
+        if (released) {
+            return;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException excp) {
+                // The lock file is deleted anyway.
+            }
+            channel = null;
+        }
+        lock.delete();
+        released = true;
+    }
+
+    /**
+     * Replaces several files at once. All the lock files are synced together,
+     * which a journaling file system can do in one go, and are then renamed in order,
+     * so a crash leaves some prefix of the files replaced.
+     * @param locks lock files holding the new contents
+     */
+    public static void commitAll(List<LockFile> locks) {
+        locks.parallelStream().forEach(LockFile::sync);
+        for (LockFile lock : locks) {
+            lock.rename();
+        }
+    }
+}
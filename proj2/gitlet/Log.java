@@ -0,0 +1,183 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static gitlet.Utils.*;
+
+/**
+ * Handles commands gitlet log, gitlet global-log and gitlet find [commit message].
+ * The commits are walked on the commit-graph, so finding the next commit never
+ * reads one, and each commit is read only when its entry is written. Entries go
+ * through one buffered writer, and the walk stops as soon as the output is closed,
+ * as by head, so a log of a long history costs only what is shown of it.
+ * @author Ziqi He
+ */
+public class Log {
+    /** Size of the output buffer, in chars. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Number of entries written between checks that the output is still open. */
+    private static final int CHECK_INTERVAL = 256;
+
+    /**
+     * Prints the history of the head commit, following first parents back to the initial commit.
+     */
+    public static void log() {
+        print(firstParents(Branch.getLastCommit(Branch.getCurrentBranch())));
+    }
+
+    /**
+     * Prints every commit ever made, newest first, in the order of the commit-graph.
+     * The graph records every stored commit, including those no branch reaches.
+     * In a repository that has no graph yet, the stored commits are read instead.
+     */
+    public static void globalLog() {
+        print(allCommits().iterator());
+    }
+
+    /**
+     * Prints the ids of all commits with the given message, one per line.
+     * The commits are decoded in parallel, and printed in the order of the commit-graph.
+     * @param message
+     */
+    public static void find(String message) {
+        List<String> commits = allCommits();
+        String ids = IntStream.range(0, commits.size()).parallel()
+                .map(i -> commits.size() - 1 - i)
+                .mapToObj(commits::get)
+                .filter(hash -> {
+                    // Decoded without the commit cache, which would only churn.
+                    byte[] contents = Repository.OBJECT_STORE.read(hash);
+                    return contents != null && Commit.fromBytes(contents).getMessage().equals(message);
+                })
+                .collect(Collectors.joining("\n"));
+        if (ids.isEmpty()) {
+            throw error("Found no commit with that message.");
+        }
+        System.out.println(ids);
+    }
+
+    /**
+     * Lists every commit, newest first. Nothing is written, so a repository
+     * without a commit-graph is left without one.
+     * @return hashes of the commits
+     */
+    private static List<String> allCommits() {
+        CommitGraph graph = Repository.COMMIT_GRAPH;
+        if (graph.size() == 0) {
+            List<String> commits = Commit.listStoredCommits();
+            commits.sort(Comparator.comparingLong((String hash) -> Commit.readCommit(hash).getTime()).reversed());
+            return commits;
+        }
+        return IntStream.iterate(graph.size() - 1, position -> position >= 0, position -> position - 1)
+                .mapToObj(graph::hashAt)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Walks the first parents of a commit lazily, on the commit-graph if it has
+     * the commit, or else by reading each commit. Nothing is written.
+     * @param hashOfCommit the commit to start from
+     * @return the commit and its first-parent ancestors, newest first
+     */
+    static Iterator<String> firstParents(String hashOfCommit) {
+        CommitGraph graph = Repository.COMMIT_GRAPH;
+        int start = graph.find(hashOfCommit);
+        if (start == CommitGraph.NONE) {
+            return new Iterator<String>() {
+                private String hash = hashOfCommit;
+
+                @Override
+                public boolean hasNext() {
+                    return hash != null;
+                }
+
+                @Override
+                public String next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    String current = hash;
+                    Commit commit = Commit.readCommit(current);
+                    hash = commit == null || commit.getParents().isEmpty() ? null : commit.getParents().get(0);
+                    return current;
+                }
+            };
+        }
+        return new Iterator<String>() {
+            private int position = start;
+
+            @Override
+            public boolean hasNext() {
+                return position != CommitGraph.NONE;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String hash = graph.hashAt(position);
+                position = graph.parent(position, 0);
+                return hash;
+            }
+        };
+    }
+
+    /**
+     * Writes the log entry of every commit in COMMITS, until they run out or
+     * the output is closed. A commit whose object is missing is skipped.
+     */
+    private static void print(Iterator<String> commits) {
+        Writer out = new BufferedWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        try {
+            int written = 0;
+            while (commits.hasNext()) {
+                String hashOfCommit = commits.next();
+                Commit commit = Commit.readCommit(hashOfCommit);
+                if (commit == null) {
+                    continue;
+                }
+                writeEntry(out, hashOfCommit, commit);
+                written += 1;
+                // System.out does not throw once its reader has gone, it only records the error.
+                if (written % CHECK_INTERVAL == 0 && System.out.checkError()) {
+                    return;
+                }
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the log entry of one commit to OUT. */
+    private static void writeEntry(Writer out, String hashOfCommit, Commit commit) throws IOException {
+        out.write("===\ncommit ");
+        out.write(hashOfCommit);
+        out.write('\n');
+        if (commit.getParents().size() > 1) {
+            out.write("Merge: ");
+            out.write(commit.getParents().get(0), 0, 7);
+            out.write(' ');
+            out.write(commit.getParents().get(1), 0, 7);
+            out.write('\n');
+        }
+        out.write("Date: ");
+        out.write(commit.getTimestamp());
+        out.write('\n');
+        out.write(commit.getMessage());
+        out.write("\n\n");
+    }
+}
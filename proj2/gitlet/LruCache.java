@@ -0,0 +1,81 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * A cache that keeps the most recently used values up to a total weight,
+ * evicting the least recently used values first.
+ * It is safe to use from several threads.
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ * @author Ziqi He
+ */
+public class LruCache<K, V> {
+    /** The values in order of use, least recent first. */
+    private final LinkedHashMap<K, V> values = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Gives the weight of a value. */
+    private final ToLongFunction<V> weigher;
+
+    /** Largest total weight kept. */
+    private final long capacity;
+
+    /** Total weight of the values kept. */
+    private long weight;
+
+    /**
+     * Constructor of LruCache.
+     * @param capacity largest total weight kept
+     * @param weigher gives the weight of a value, such as its size in bytes
+     */
+    public LruCache(long capacity, ToLongFunction<V> weigher) {
+        this.capacity = capacity;
+        this.weigher = weigher;
+    }
+
+    /**
+     * Gets a value, marking it as the most recently used.
+     * @param key
+     * @return the value, or null if it is not cached
+     */
+    public synchronized V get(K key) {
+        return values.get(key);
+    }
+
+    /**
+     * Caches a value, evicting the least recently used values to make room.
+     * A value heavier than the whole cache is not kept.
+     * @param key
+     * @param value
+     */
+    public synchronized void put(K key, V value) {
+        long valueWeight = weigher.applyAsLong(value);
+        if (valueWeight > capacity) {
+            return;
+        }
+        V old = values.put(key, value);
+        if (old != null) {
+            weight -= weigher.applyAsLong(old);
+        }
+        weight += valueWeight;
+        Iterator<Map.Entry<K, V>> eldest = values.entrySet().iterator();
+        while (weight > capacity && eldest.hasNext()) {
+            weight -= weigher.applyAsLong(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Removes a value.
+     * @param key
+     */
+    public synchronized void remove(K key) {
+        V old = values.remove(key);
+        if (old != null) {
+            weight -= weigher.applyAsLong(old);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package gitlet;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.List;
 
 import static gitlet.Utils.*;
 
@@ -13,10 +15,43 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--trace")) {
+            Metrics.enableTrace();
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        // A running daemon serves the command from its warm JVM.
+        if (Daemon.forward(args)) {
+            return;
+        }
+        // The report and the trace are written on the way out, however the command ends.
+        if (Metrics.isReportEnabled()) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> Metrics.report(System.err)));
+        }
+        String traceTarget = Metrics.traceTarget();
+        if (traceTarget != null) {
+            String command = args.length > 0 ? args[0] : "";
+            long start = System.nanoTime();
+            Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                    Metrics.trace(traceTarget, command, System.nanoTime() - start)));
+        }
+        try {
+            run(args);
+        } catch (GitletException excp) {
+            message(excp.getMessage());
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Runs one command. A command that cannot go on throws a GitletException
+     * whose message is shown to the user, rather than exiting,
+     * so the daemon can run commands one after another.
+     * @param args the command and its operands
+     */
+    public static void run(String[] args) {
         // check whether args is empty
         if (args.length == 0) {
-            message("Please enter a command");
-            System.exit(0);
+            throw error("Please enter a command");
         }
         String firstArg = args[0];
 
@@ -26,24 +61,21 @@ public class Main {
                 break;
             case "add":
                 if (!Repository.checkGitletExists()) {
-                    message("Not in an initialized Gitlet directory.");
-                    System.exit(0);
+                    throw error("Not in an initialized Gitlet directory.");
                 }
                 if (args.length < 2) {
-                    message("File does not exist.");
-                    System.exit(0);
+                    throw error("File does not exist.");
                 }
-                Index.fromFile().addFile(args[1]);
+                Index.fromFile().addFiles(Arrays.asList(args).subList(1, args.length));
                 break;
             case "commit":
                 if (args.length < 2) {
-                    message("Please enter a commit message.");
-                    System.exit(0);
+                    throw error("Please enter a commit message.");
                 }
                 // If no files have been staged, abort.
-                if (Index.fromFile().stagingArea.isEmpty()) {
-                    message("No changes added to the commit");
-                    System.exit(0);
+                Index staged = Index.fromFile();
+                if (staged.stagingArea.isEmpty() && staged.removalArea.isEmpty()) {
+                    throw error("No changes added to the commit");
                 }
                 Commit thisCommit = new Commit(
                         Branch.getLastCommit(Branch.getCurrentBranch()), Commit.getFormattedDate(), args[1]
@@ -52,8 +84,7 @@ public class Main {
                 break;
             case "rm":
                 if (args.length < 2) {
-                    message("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 Index.fromFile().removeFile(args[1]);
                 break;
@@ -62,8 +93,7 @@ public class Main {
                 break;
             case "checkout":
                 if (args.length < 2) {
-                    message("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 if (args.length == 2) {
                     Branch.checkoutBranch(args[1]);
@@ -77,31 +107,161 @@ public class Main {
                 break;
             case "branch":
                 if (args.length < 2) {
-                    message("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 Branch.createNewBranch(args[1], Branch.getLastCommit(Branch.getCurrentBranch()));
                 break;
             case "rm-branch":
                 if (args.length < 2) {
-                    message("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 Branch.removeBranch(args[1]);
                 break;
+            case "log":
+                if (!Repository.checkGitletExists()) {
+                    throw error("Not in an initialized Gitlet directory.");
+                }
+                Log.log();
+                break;
+            case "global-log":
+                if (!Repository.checkGitletExists()) {
+                    throw error("Not in an initialized Gitlet directory.");
+                }
+                Log.globalLog();
+                break;
+            case "find":
+                if (!Repository.checkGitletExists()) {
+                    throw error("Not in an initialized Gitlet directory.");
+                }
+                if (args.length < 2) {
+                    throw error("Incorrect operands.");
+                }
+                Log.find(args[1]);
+                break;
+            case "diff":
+                if (!Repository.checkGitletExists()) {
+                    throw error("Not in an initialized Gitlet directory.");
+                }
+                if (args.length > 3) {
+                    throw error("Incorrect operands.");
+                }
+                Diff.diff(Arrays.copyOfRange(args, 1, args.length));
+                break;
+            case "merge":
+                if (!Repository.checkGitletExists()) {
+                    throw error("Not in an initialized Gitlet directory.");
+                }
+                if (args.length < 2) {
+                    throw error("Incorrect operands.");
+                }
+                Merge.merge(args[1]);
+                break;
+            case "repack":
+                if (!Repository.checkGitletExists()) {
+                    throw error("Not in an initialized Gitlet directory.");
+                }
+                int packed = Repository.repack();
+                message("Packed %d objects.", packed);
+                break;
+            case "migrate":
+                if (!Repository.checkGitletExists()) {
+                    throw error("Not in an initialized Gitlet directory.");
+                }
+                message("Migrated %d commits.", Repository.migrate());
+                break;
+            case "commit-graph":
+                if (!Repository.checkGitletExists()) {
+                    throw error("Not in an initialized Gitlet directory.");
+                }
+                message("Commit graph has %d commits.", Repository.writeCommitGraph());
+                break;
+            case "daemon":
+                if (!Repository.checkGitletExists()) {
+                    throw error("Not in an initialized Gitlet directory.");
+                }
+                if (args.length == 2 && args[1].equals("stop")) {
+                    Daemon.stop();
+                } else {
+                    Daemon.serve();
+                }
+                break;
+            case "gc":
+                if (!Repository.checkGitletExists()) {
+                    throw error("Not in an initialized Gitlet directory.");
+                }
+                long[] collected = GarbageCollector.collect(args.length > 1 && args[1].equals("--now"));
+                message("Removed %d objects, reclaimed %d bytes.", collected[0], collected[1]);
+                break;
+            case "pack-refs":
+                if (!Repository.checkGitletExists()) {
+                    throw error("Not in an initialized Gitlet directory.");
+                }
+                message("Packed %d refs.", Branch.packRefs());
+                break;
+            case "contains":
+                if (!Repository.checkGitletExists()) {
+                    throw error("Not in an initialized Gitlet directory.");
+                }
+                if (args.length < 2) {
+                    throw error("Incorrect operands.");
+                }
+                List<String> branches = ReachabilityBitmaps.branchesContaining(
+                        ReachabilityBitmaps.resolve(args[1]));
+                if (branches.isEmpty()) {
+                    message("No branch contains that blob.");
+                }
+                for (String branchName : branches) {
+                    System.out.println(branchName);
+                }
+                break;
+            case "add-remote":
+                if (!Repository.checkGitletExists()) {
+                    throw error("Not in an initialized Gitlet directory.");
+                }
+                if (args.length != 3) {
+                    throw error("Incorrect operands.");
+                }
+                Remote.addRemote(args[1], args[2]);
+                break;
+            case "rm-remote":
+                if (!Repository.checkGitletExists()) {
+                    throw error("Not in an initialized Gitlet directory.");
+                }
+                if (args.length != 2) {
+                    throw error("Incorrect operands.");
+                }
+                Remote.removeRemote(args[1]);
+                break;
+            case "push":
+            case "fetch":
+            case "pull":
+                if (!Repository.checkGitletExists()) {
+                    throw error("Not in an initialized Gitlet directory.");
+                }
+                if (args.length != 3) {
+                    throw error("Incorrect operands.");
+                }
+                if (args[0].equals("push")) {
+                    Remote.push(args[1], args[2]);
+                } else if (args[0].equals("fetch")) {
+                    Remote.fetch(args[1], args[2]);
+                } else {
+                    Remote.pull(args[1], args[2]);
+                }
+                break;
             case "cat-index":
                 Index.printIndex();
                 break;
             case "cat-commit":
-                if(args.length < 3) {
-                    message("Please enter the filename of commit");
-                    System.exit(0);
+                if(args.length < 2) {
+                    throw error("Please enter the filename of commit");
                 }
                 // Commit commit = readObject(join(Repository.OBJECTS, args[1], args[2]), Commit.class);
-                Commit commit = Commit.readCommit(args[1] + args[2]);
+                // The id may be given whole, abbreviated, or split as its directory and file name.
+                String hashOfCommit = Commit.resolve(args.length < 3 ? args[1] : args[1] + args[2]);
+                Commit commit = hashOfCommit == null ? null : Commit.readCommit(hashOfCommit);
                 if (commit == null){
-                    System.out.println("error!");
-                    System.exit(0);
+                    throw error("error!");
                 }
                 System.out.println(commit);
                 commit.print();
@@ -0,0 +1,150 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * Handles command gitlet merge [branch name].
+ * Merges the files of the head commit of the given branch into the current branch,
+ * relative to their split point: the latest common ancestor of the two heads.
+ * The split point is found on the commit-graph, so no commit other than the
+ * two heads and the split point is read.
+ * @author Ziqi He
+ */
+public class Merge {
+    /**
+     * Merges the given branch into the current branch.
+     * @param branchName
+     */
+    public static void merge(String branchName) {
+        Index index = Index.fromFile();
+        if (!index.stagingArea.isEmpty() || !index.removalArea.isEmpty()) {
+            message("You have uncommitted changes.");
+            return;
+        }
+        if (!Branch.exists(branchName)) {
+            message("A branch with that name does not exist.");
+            return;
+        }
+        String currentBranch = Branch.getCurrentBranch();
+        if (branchName.equals(currentBranch)) {
+            message("Cannot merge a branch with itself.");
+            return;
+        }
+
+        String hashOfCurrent = Branch.getLastCommit(currentBranch);
+        String hashOfGiven = Branch.getLastCommit(branchName);
+        CommitGraph graph = Repository.COMMIT_GRAPH;
+        int current = graph.add(hashOfCurrent);
+        int given = graph.add(hashOfGiven);
+        int splitPoint = graph.mergeBase(current, given);
+
+        Commit currentCommit = Commit.readCommit(hashOfCurrent);
+        Commit givenCommit = Commit.readCommit(hashOfGiven);
+        if (splitPoint == given) {
+            message("Given branch is an ancestor of the current branch.");
+            return;
+        }
+        if (splitPoint == current) {
+            if (Branch.checkoutCommit(currentCommit, givenCommit)) {
+                Branch.updateBranchPointer(currentBranch, hashOfGiven);
+                message("Current branch fast-forwarded.");
+            }
+            return;
+        }
+
+        // Histories with no common ancestor, as from another repository, are merged
+        // as if they split from an empty snapshot, so every file is added on both sides.
+        Map<String, String> splitFiles = splitPoint == CommitGraph.NONE
+                ? new HashMap<>() : Commit.readCommit(graph.hashAt(splitPoint)).getTrackedFiles();
+        Map<String, String> currentFiles = currentCommit.getTrackedFiles();
+        Map<String, String> givenFiles = givenCommit.getTrackedFiles();
+
+        // Work out what happens to every file before touching the working directory.
+        // A file maps to the blob it ends up with, or to null if it is removed;
+        // files the merge leaves alone are not in the map.
+        Map<String, String> changes = new TreeMap<>();
+        TreeSet<String> conflicts = new TreeSet<>();
+        TreeSet<String> fileNames = new TreeSet<>(splitFiles.keySet());
+        fileNames.addAll(currentFiles.keySet());
+        fileNames.addAll(givenFiles.keySet());
+        for (String fileName : fileNames) {
+            String inSplit = splitFiles.get(fileName);
+            String inCurrent = currentFiles.get(fileName);
+            String inGiven = givenFiles.get(fileName);
+            if (Objects.equals(inCurrent, inGiven) || Objects.equals(inSplit, inGiven)) {
+                // Changed the same way in both branches, or only in the current branch.
+                continue;
+            }
+            if (Objects.equals(inSplit, inCurrent)) {
+                // Changed only in the given branch: take the given version.
+                changes.put(fileName, inGiven);
+            } else {
+                conflicts.add(fileName);
+            }
+        }
+
+        // If a working file is untracked in the current branch and would be overwritten or deleted.
+        for (String fileName : fileNames) {
+            if ((changes.containsKey(fileName) || conflicts.contains(fileName))
+                    && !currentFiles.containsKey(fileName)
+                    && join(Repository.CWD, fileName).exists()) {
+                message("There is an untracked file in the way; delete it, or add and commit it first.");
+                return;
+            }
+        }
+
+        for (String fileName : conflicts) {
+            byte[] contents = conflictContents(currentFiles.get(fileName), givenFiles.get(fileName));
+            String hashOfFile = sha1(contents);
+            Repository.OBJECT_STORE.write(hashOfFile, contents);
+            changes.put(fileName, hashOfFile);
+        }
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String fileName = change.getKey();
+            String hashOfFile = change.getValue();
+            if (hashOfFile == null) {
+                Repository.deleteWorkingFile(fileName);
+                index.removalArea.add(fileName);
+            } else {
+                Repository.writeWorkingFile(fileName, Repository.readBlob(hashOfFile));
+                index.stagingArea.put(fileName, hashOfFile);
+            }
+        }
+        index.writeIndex();
+
+        Commit mergeCommit = new Commit(hashOfCurrent, hashOfGiven, Commit.getFormattedDate(),
+                String.format("Merged %s into %s.", branchName, currentBranch));
+        mergeCommit.writeCommit();
+        if (!conflicts.isEmpty()) {
+            message("Encountered a merge conflict.");
+        }
+    }
+
+    /**
+     * Builds the contents of a file in conflict, showing both versions.
+     * @param inCurrent blob of the file in the current branch, or null if it is deleted there
+     * @param inGiven blob of the file in the given branch, or null if it is deleted there
+     * @return contents of the conflicted file
+     */
+    private static byte[] conflictContents(String inCurrent, String inGiven) {
+        ByteArrayOutputStream contents = new ByteArrayOutputStream();
+        contents.writeBytes("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8));
+        if (inCurrent != null) {
+            contents.writeBytes(Repository.readBlob(inCurrent));
+        }
+        contents.writeBytes("=======\n".getBytes(StandardCharsets.UTF_8));
+        if (inGiven != null) {
+            contents.writeBytes(Repository.readBlob(inGiven));
+        }
+        contents.writeBytes(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
+        return contents.toByteArray();
+    }
+}
@@ -0,0 +1,231 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the work done by one gitlet command: cache hits and misses,
+ * files and objects read and written, bytes moved, objects decoded, and the
+ * time spent hashing and syncing. Counting is cheap and always on; the counts
+ * are printed to standard error when the GITLET_STATS environment variable is set.
+ *
+ * Tracing, turned on by the GITLET_TRACE environment variable or the --trace
+ * option, writes the counts and the running time of each command as one JSON
+ * line, so scripts can collect them. The line goes to standard error, or is
+ * appended to a file if GITLET_TRACE is an absolute path.
+ * @author Ziqi He
+ */
+public class Metrics {
+    /** Environment variable that turns on the report. */
+    public static final String STATS_VARIABLE = "GITLET_STATS";
+
+    /** Lookups answered by the object cache. */
+    public static final String CACHE_HITS = "cache.hits";
+
+    /** Lookups the object cache could not answer. */
+    public static final String CACHE_MISSES = "cache.misses";
+
+    /** Objects read from the object store. */
+    public static final String OBJECT_READS = "objects.read";
+
+    /** Bytes read from the object store, the index and the refs. */
+    public static final String BYTES_READ = "bytes.read";
+
+    /** Files read whole. */
+    public static final String FILES_READ = "files.read";
+
+    /** Files written: objects, refs, the index and the pack. */
+    public static final String FILES_WRITTEN = "files.written";
+
+    /** Bytes written to those files. */
+    public static final String BYTES_WRITTEN = "bytes.written";
+
+    /** Objects decoded: commits, trees and serialized objects. */
+    public static final String OBJECTS_DECODED = "objects.decoded";
+
+    /** Contents hashed with SHA-1. */
+    public static final String HASHES = "hashes";
+
+    /** Nanoseconds spent hashing. */
+    public static final String HASH_NANOS = "hash.nanos";
+
+    /** Files synced to disk. */
+    public static final String FSYNCS = "fsyncs";
+
+    /** Nanoseconds spent syncing. */
+    public static final String FSYNC_NANOS = "fsync.nanos";
+
+    /** Environment variable that turns on tracing. */
+    public static final String TRACE_VARIABLE = "GITLET_TRACE";
+
+    /** Counters every trace line has, even when they are zero, in the order written. */
+    private static final List<String> TRACED = Arrays.asList(FILES_READ, BYTES_READ,
+            FILES_WRITTEN, BYTES_WRITTEN, OBJECT_READS, OBJECTS_DECODED,
+            HASHES, HASH_NANOS, FSYNCS, FSYNC_NANOS, CACHE_HITS, CACHE_MISSES);
+
+    /** Where traces go when set by the --trace option, otherwise null. */
+    private static String traceTarget;
+
+    /** The counters, by name. */
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+
+    /**
+     * Adds one to a counter.
+     * @param name
+     */
+    public static void count(String name) {
+        count(name, 1);
+    }
+
+    /**
+     * Adds an amount to a counter.
+     * @param name
+     * @param amount
+     */
+    public static void count(String name, long amount) {
+        COUNTERS.computeIfAbsent(name, k -> new LongAdder()).add(amount);
+    }
+
+    /**
+     * Adds the time since START to a counter of nanoseconds.
+     * @param name
+     * @param start a value of System.nanoTime
+     */
+    public static void time(String name, long start) {
+        count(name, System.nanoTime() - start);
+    }
+
+    /**
+     * Gets the value of a counter.
+     * @param name
+     * @return the value, 0 if nothing was counted
+     */
+    public static long get(String name) {
+        LongAdder counter = COUNTERS.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Sets every counter back to zero.
+     */
+    public static void reset() {
+        COUNTERS.clear();
+    }
+
+    /**
+     * Checks whether the report was asked for.
+     * @return true if GITLET_STATS is set
+     */
+    public static boolean isReportEnabled() {
+        return System.getenv(STATS_VARIABLE) != null;
+    }
+
+    /**
+     * Turns on tracing to standard error, as the --trace option does.
+     */
+    public static void enableTrace() {
+        traceTarget = "1";
+    }
+
+    /**
+     * Gets where traces go.
+     * @return an absolute path to append them to, another value for standard error,
+     * or null if tracing is off
+     */
+    public static String traceTarget() {
+        if (traceTarget != null) {
+            return traceTarget;
+        }
+        String target = System.getenv(TRACE_VARIABLE);
+        if (target == null || target.isEmpty() || target.equals("0") || target.equals("false")) {
+            return null;
+        }
+        return target;
+    }
+
+    /**
+     * Writes the trace line of a command:
+     * its name, its running time, and every counter.
+     * @param target where the line goes, as returned by traceTarget
+     * @param command the name of the command
+     * @param nanos the running time of the command
+     */
+    public static void trace(String target, String command, long nanos) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (String name : TRACED) {
+            values.put(name, get(name));
+        }
+        Map<String, Long> others = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> counter : COUNTERS.entrySet()) {
+            others.put(counter.getKey(), counter.getValue().sum());
+        }
+        others.keySet().removeAll(TRACED);
+        values.putAll(others);
+
+        StringBuilder line = new StringBuilder("{\"command\":");
+        appendString(line, command);
+        line.append(",\"elapsed.nanos\":").append(nanos);
+        for (Map.Entry<String, Long> value : values.entrySet()) {
+            line.append(',');
+            appendString(line, value.getKey());
+            line.append(':').append(value.getValue());
+        }
+        line.append("}\n");
+
+        Path path = Paths.get(target);
+        if (!path.isAbsolute()) {
+            System.err.print(line);
+            System.err.flush();
+            return;
+        }
+        // One write in append mode, so lines of concurrent commands do not interleave.
+        try {
+            Files.write(path, line.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Appends S to LINE as a JSON string. */
+    private static void appendString(StringBuilder line, String s) {
+        line.append('"');
+        for (int i = 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < 0x20) {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+
+    /**
+     * Prints every counter, in order of name.
+     * @param out
+     */
+    public static void report(PrintStream out) {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> counter : COUNTERS.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().sum());
+        }
+        for (Map.Entry<String, Long> value : values.entrySet()) {
+            out.printf("[stats] %s %d%n", value.getKey(), value.getValue());
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Utils.*;
+
+/**
+ * Keeps what one gitlet command has already read, so it is not read again:
+ * decoded commits, the index, and the contents of HEAD and the branch refs.
+ * A single command looks up the head commit and the staging area many times
+ * over (add, rm and commit each do), and every lookup after the first is
+ * answered from memory.
+ * Commits are named by their contents and never change, so they are kept in a
+ * bounded LRU. The index and refs can change, so every write goes through here too.
+ * The daemon keeps all of these from one command to the next; the stat data of
+ * each file is kept with it, so what another process has changed since is dropped.
+ * @author Ziqi He
+ */
+public class ObjectCache {
+    /** Largest number of commits kept. */
+    static final int MAX_COMMITS = 1024;
+
+    /** Decoded commits, by hash. */
+    private static final LruCache<String, Commit> COMMITS = new LruCache<>(MAX_COMMITS, commit -> 1);
+
+    /** The index as last read or written, or null. */
+    private static Index index;
+
+    /** Contents of the refs read or written, by file. */
+    private static final Map<File, String> REFS = new HashMap<>();
+
+    /** Stat data of the index and ref files when they were last read or written. */
+    private static final Map<File, FileStat> STAMPS = new HashMap<>();
+
+    /**
+     * Gets a decoded commit.
+     * @param hash
+     * @return the commit, or null if it is not cached
+     */
+    public static Commit getCommit(String hash) {
+        return hit(COMMITS.get(hash));
+    }
+
+    /**
+     * Keeps a decoded commit.
+     * @param hash
+     * @param commit
+     */
+    public static void putCommit(String hash, Commit commit) {
+        COMMITS.put(hash, commit);
+    }
+
+    /**
+     * Gets the index.
+     * @return the index as last read or written, or null if it is not cached
+     */
+    public static Index getIndex() {
+        return hit(index);
+    }
+
+    /**
+     * Keeps the index after it is read or written.
+     * @param newIndex
+     */
+    public static void putIndex(Index newIndex) {
+        index = newIndex;
+        FileStat stamp = FileStat.of(Repository.INDEX);
+        STAMPS.put(Repository.INDEX, stamp);
+        if (stamp != null) {
+            // A file modified at or after this time is not trusted to match its stat data.
+            newIndex.indexModifiedTime = stamp.modifiedTime;
+        }
+    }
+
+    /**
+     * Reads a ref, such as HEAD or a branch.
+     * @param ref the file of the ref
+     * @return its contents, or null if there is no such file
+     */
+    public static String readRef(File ref) {
+        String contents = hit(REFS.get(ref));
+        if (contents == null) {
+            if (!ref.isFile()) {
+                return null;
+            }
+            contents = readContentsAsString(ref);
+            REFS.put(ref, contents);
+            STAMPS.put(ref, FileStat.of(ref));
+        }
+        return contents;
+    }
+
+    /**
+     * Writes a ref.
+     * @param ref the file of the ref
+     * @param contents
+     */
+    public static void writeRef(File ref, String contents) {
+        write(Collections.singletonMap(ref, contents), null);
+    }
+
+    /**
+     * Writes refs and the index together through lock files, which are synced
+     * together and then renamed into place, refs first.
+     * A ref or the index that another process has written since it was read
+     * here is not overwritten, since that would lose the other process's change.
+     * @param refs the contents of each ref to write, by file
+     * @param newIndex the index to write, or null
+     */
+    public static void write(Map<File, String> refs, Index newIndex) {
+        List<LockFile> locks = new ArrayList<>();
+        try {
+            for (Map.Entry<File, String> ref : refs.entrySet()) {
+                LockFile lock = lock(ref.getKey());
+                locks.add(lock);
+                lock.write(ref.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+            if (newIndex != null) {
+                LockFile lock = lock(Repository.INDEX);
+                locks.add(lock);
+                lock.write(newIndex.toBytes());
+            }
+            LockFile.commitAll(locks);
+        } catch (RuntimeException excp) {
+            for (LockFile lock : locks) {
+                lock.rollback();
+            }
+            throw excp;
+        }
+        for (Map.Entry<File, String> ref : refs.entrySet()) {
+            REFS.put(ref.getKey(), ref.getValue());
+            STAMPS.put(ref.getKey(), FileStat.of(ref.getKey()));
+        }
+        if (newIndex != null) {
+            putIndex(newIndex);
+        }
+    }
+
+    /** Takes the lock on FILE, checking that it has not changed since it was read here. */
+    private static LockFile lock(File file) {
+        LockFile lock = new LockFile(file);
+        FileStat stamp = STAMPS.get(file);
+        if (stamp != null && !stamp.matches(FileStat.of(file))) {
+            lock.rollback();
+            throw error("%s was changed by another gitlet process.", file.getName());
+        }
+        return lock;
+    }
+
+    /**
+     * Deletes a ref.
+     * @param ref the file of the ref
+     */
+    public static void deleteRef(File ref) {
+        LockFile lock = lock(ref);
+        ref.delete();
+        lock.rollback();
+        REFS.remove(ref);
+        STAMPS.remove(ref);
+    }
+
+    /**
+     * Forgets the index and the refs, which another process may change,
+     * but keeps the commits, which never change.
+     */
+    public static void clear() {
+        index = null;
+        REFS.clear();
+        STAMPS.clear();
+    }
+
+    /**
+     * Forgets the index and the refs whose files have changed since they were
+     * last read or written here, as when another process has written them.
+     */
+    public static void revalidate() {
+        Iterator<Map.Entry<File, FileStat>> stamps = STAMPS.entrySet().iterator();
+        while (stamps.hasNext()) {
+            Map.Entry<File, FileStat> stamp = stamps.next();
+            File file = stamp.getKey();
+            if (stamp.getValue() != null && stamp.getValue().matches(FileStat.of(file))) {
+                continue;
+            }
+            if (file.equals(Repository.INDEX)) {
+                index = null;
+            }
+            REFS.remove(file);
+            stamps.remove();
+        }
+    }
+
+    /** Counts a lookup that found VALUE, or missed if it is null, and returns VALUE. */
+    private static <T> T hit(T value) {
+        Metrics.count(value == null ? Metrics.CACHE_MISSES : Metrics.CACHE_HITS);
+        return value;
+    }
+}
@@ -0,0 +1,806 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents the object database of a gitlet repository.
+ * Objects (blobs and commits) are named by their hash and live either as loose files,
+ * one per object under a two-character fan-out directory, or in the packfile
+ * written by the repack command. Reads look in the pack first and fall back to
+ * the loose files, so callers never need to know where an object is stored.
+ *
+ * Objects are stored deflated behind a one-byte header (COMPRESSED followed by
+ * a zlib stream). Objects written before compression was introduced have no
+ * header and are returned as they are.
+ * Files of at least CHUNKING_THRESHOLD bytes are split into content-defined
+ * chunks, each stored as an object of its own, and the blob itself holds
+ * only the list of its chunks (CHUNKED followed by the list). The blob is still
+ * named by the hash of the whole file, so nothing outside the store can tell.
+ * Repack may store a packed object as a delta against a similar object
+ * (DELTA, the hash of the base, then a deflated Delta), usually an adjacent
+ * version of the same file.
+ * @author Ziqi He
+ */
+public class ObjectStore {
+    /** Header byte of a deflated object. */
+    static final int COMPRESSED = 1;
+
+    /** Header byte of a chunked blob, whose contents are the list of its chunks. */
+    static final int CHUNKED = 2;
+
+    /** Type tag of the chunk list of a chunked blob. */
+    static final int CHUNK_LIST_TYPE = 'K';
+
+    /** Version of the chunk list format. */
+    static final int CHUNK_LIST_VERSION = 1;
+
+    /** Header byte of a packed object stored as a delta against another object. */
+    static final int DELTA = 3;
+
+    /** Longest chain of deltas an object may be at the end of. */
+    static final int MAX_DELTA_DEPTH = 10;
+
+    /** Total size of the objects rebuilt from deltas that are kept for reuse. */
+    private static final long DELTA_CACHE_SIZE = 16 * 1024 * 1024;
+
+    /** Files at least this large are stored as chunks. */
+    static final long CHUNKING_THRESHOLD = 1024 * 1024;
+
+    /** Size of the buffers used to deflate and inflate objects. */
+    static final int BUFFER_SIZE = 8192;
+
+    /** The objects directory. */
+    private final File directory;
+
+    /** The packfile inside the objects directory. */
+    private final Pack pack;
+
+    /**
+     * Recently rebuilt objects at the ends and along delta chains,
+     * so reading successive versions of a file does not rebuild the same bases again.
+     */
+    private final LruCache<String, byte[]> deltaBases =
+            new LruCache<>(DELTA_CACHE_SIZE, contents -> contents.length);
+
+    /**
+     * Constructor of ObjectStore.
+     * @param directory the objects directory
+     */
+    public ObjectStore(File directory) {
+        this.directory = directory;
+        this.pack = new Pack(join(directory, "pack"));
+    }
+
+    /**
+     * Gets the pack of this object store.
+     * @return the pack
+     */
+    public Pack getPack() {
+        return pack;
+    }
+
+    /**
+     * Gets the loose file of the object with the given hash.
+     * @param hash
+     * @return the file, which may not exist
+     */
+    public File looseFile(String hash) {
+        String[] blobPath = Repository.getBlobPath(hash);
+        return join(directory, blobPath[0], blobPath[1]);
+    }
+
+    /**
+     * Checks whether the object with the given hash is stored.
+     * @param hash
+     * @return true if the object is in the pack or stored loose
+     */
+    public boolean contains(String hash) {
+        return pack.contains(hash) || looseFile(hash).isFile();
+    }
+
+    /**
+     * Finds the objects whose hashes start with the given prefix.
+     * The pack index is searched, and of the loose objects only the one
+     * fan-out directory named by the first two characters is listed.
+     * @param prefix lowercase hexadecimal prefix of at least two characters
+     * @return the hashes of the matching objects
+     */
+    public List<String> findByPrefix(String prefix) {
+        List<String> found = pack.findByPrefix(prefix);
+        List<String> names = plainFilenamesIn(join(directory, prefix.substring(0, 2)));
+        if (names == null) {
+            return found;
+        }
+        String rest = prefix.substring(2);
+        for (String name : names) {
+            String hash = prefix.substring(0, 2) + name;
+            if (name.length() == UID_LENGTH - 2 && name.startsWith(rest) && !found.contains(hash)) {
+                found.add(hash);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Reads the contents of the object with the given hash,
+     * inflating it if it is stored compressed.
+     * @param hash
+     * @return the contents, or null if there is no such object
+     */
+    public byte[] read(String hash) {
+        byte[] stored = readStored(hash);
+        if (stored == null) {
+            return null;
+        }
+        if (isDelta(stored)) {
+            return readDelta(hash, stored);
+        }
+        if (isChunked(stored)) {
+            ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            for (String chunk : readChunkList(stored)) {
+                contents.writeBytes(readChunk(chunk));
+            }
+            return contents.toByteArray();
+        }
+        if (!isCompressed(stored)) {
+            return stored;
+        }
+        try (InputStream in = inflate(stored)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Reads the first bytes of the contents of an object, inflating no more than
+     * that takes, as to tell its type. A chunked or delta object is always a blob,
+     * and gives no bytes.
+     * @param hash
+     * @param length the number of bytes wanted
+     * @return up to LENGTH bytes, or null if there is no such object
+     */
+    public byte[] readStart(String hash, int length) {
+        byte[] packed = pack.read(hash);
+        if (packed == null && !looseFile(hash).isFile()) {
+            return null;
+        }
+        try (InputStream in = new BufferedInputStream(packed != null
+                ? new ByteArrayInputStream(packed) : Files.newInputStream(looseFile(hash).toPath()))) {
+            int headerLength = 1 + Pack.HASH_BYTES + 2;
+            in.mark(headerLength);
+            byte[] header = in.readNBytes(headerLength);
+            in.reset();
+            if (isChunked(header) || isDelta(header)) {
+                return new byte[0];
+            }
+            if (!isCompressed(header)) {
+                return in.readNBytes(length);
+            }
+            in.skip(1);
+            try (InputStream contents = inflate(in)) {
+                return contents.readNBytes(length);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Reads the object with the given hash exactly as it is stored,
+     * without inflating it.
+     * @param hash
+     * @return the stored bytes, or null if there is no such object
+     */
+    public byte[] readStored(String hash) {
+        byte[] stored = pack.read(hash);
+        if (stored == null) {
+            File loose = looseFile(hash);
+            if (!loose.isFile()) {
+                return null;
+            }
+            // Counted as a file read.
+            stored = readContents(loose);
+        } else {
+            Metrics.count(Metrics.BYTES_READ, stored.length);
+        }
+        Metrics.count(Metrics.OBJECT_READS);
+        return stored;
+    }
+
+    /**
+     * Gets the chunks of a loose object, if it is a chunked blob.
+     * Only the first bytes of the loose file are read to tell.
+     * @param hash
+     * @return the hashes of its chunks, empty if it is not chunked or not loose
+     */
+    public List<String> looseChunks(String hash) {
+        File loose = looseFile(hash);
+        byte[] header;
+        try (InputStream in = Files.newInputStream(loose.toPath())) {
+            header = in.readNBytes(3);
+        } catch (IOException excp) {
+            return Collections.emptyList();
+        }
+        if (!isChunked(header)) {
+            return Collections.emptyList();
+        }
+        return readChunkList(readContents(loose));
+    }
+
+    /**
+     * Writes the contents of the object with the given hash to a file.
+     * A loose object is streamed into the file rather than read into memory:
+     * a compressed one is inflated as it is copied, and one stored without
+     * compression is copied by FileChannel.transferTo, which lets the kernel
+     * move the bytes without passing them through the JVM.
+     * @param hash
+     * @param target the file to write, which is replaced if it exists
+     */
+    public void copyTo(String hash, File target) {
+        File loose = looseFile(hash);
+        if (pack.contains(hash) || !loose.isFile()) {
+            byte[] contents = read(hash);
+            if (contents == null) {
+                throw error("Missing object %s", hash);
+            }
+            writeContents(target, contents);
+            return;
+        }
+        try (FileChannel in = FileChannel.open(loose.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Metrics.count(Metrics.OBJECT_READS);
+            Metrics.count(Metrics.FILES_READ);
+            Metrics.count(Metrics.BYTES_READ, in.size());
+            ByteBuffer header = ByteBuffer.allocate(3);
+            while (header.hasRemaining() && in.read(header) >= 0) {
+                continue;
+            }
+            byte[] start = Arrays.copyOf(header.array(), header.position());
+            if (isChunked(start)) {
+                // The chunks are written one at a time, so the file is never held in memory.
+                in.position(0);
+                byte[] stored = Channels.newInputStream(in).readAllBytes();
+                for (String chunk : readChunkList(stored)) {
+                    ByteBuffer contents = ByteBuffer.wrap(readChunk(chunk));
+                    while (contents.hasRemaining()) {
+                        out.write(contents);
+                    }
+                }
+                return;
+            }
+            if (isCompressed(start)) {
+                in.position(1);
+                try (InputStream inflated = inflate(Channels.newInputStream(in));
+                     OutputStream outStream = Channels.newOutputStream(out)) {
+                    inflated.transferTo(outStream);
+                }
+                return;
+            }
+            long size = in.size();
+            long copied = 0;
+            while (copied < size) {
+                copied += in.transferTo(copied, size - copied, out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Stores the object with the given hash as a deflated loose file.
+     * Objects are named by their contents, so an object that is already
+     * stored is not written again.
+     * @param hash
+     * @param contents
+     */
+    public void write(String hash, byte[] contents) {
+        if (contains(hash)) {
+            return;
+        }
+        File loose = looseFile(hash);
+        loose.getParentFile().mkdir();
+        try (OutputStream out = deflate(loose)) {
+            out.write(contents);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the stored contents of a loose object, for example to convert it
+     * to a newer format. The new contents are written beside the old file and
+     * renamed over it, so the object is never missing.
+     * @param hash
+     * @param contents
+     */
+    public void rewrite(String hash, byte[] contents) {
+        File loose = looseFile(hash);
+        try {
+            File temp = File.createTempFile("tmp_obj_", null, directory);
+            try (OutputStream out = deflate(temp)) {
+                out.write(contents);
+            }
+            Files.move(temp.toPath(), loose.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Stores the contents of the given file as a blob and returns its hash.
+     * The file is read once through a fixed-size buffer: each chunk is fed to
+     * the digest and deflated into a temporary file, which is renamed to the
+     * blob's name once the hash is known. So large files are stored in
+     * constant memory, and a blob that is already stored is not written.
+     * @param file
+     * @return hash of the file contents
+     */
+    public String writeFile(File file) {
+        if (file.length() >= CHUNKING_THRESHOLD) {
+            return writeChunked(file);
+        }
+        MessageDigest md = newSha1();
+        ByteBuffer buffer = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+        File temp;
+        long hashing = 0;
+        try {
+            temp = File.createTempFile("tmp_obj_", null, directory);
+            try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                 OutputStream out = deflate(temp)) {
+                while (in.read(buffer) >= 0) {
+                    long start = System.nanoTime();
+                    md.update(buffer.array(), 0, buffer.position());
+                    hashing += System.nanoTime() - start;
+                    out.write(buffer.array(), 0, buffer.position());
+                    Metrics.count(Metrics.BYTES_READ, buffer.position());
+                    buffer.clear();
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Metrics.count(Metrics.FILES_READ);
+        Metrics.count(Metrics.HASHES);
+        Metrics.count(Metrics.HASH_NANOS, hashing);
+
+        String hash = toHex(md.digest());
+        if (contains(hash)) {
+            temp.delete();
+            return hash;
+        }
+        File loose = looseFile(hash);
+        loose.getParentFile().mkdir();
+        try {
+            Files.move(temp.toPath(), loose.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            temp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return hash;
+    }
+
+    /**
+     * Stores a large file as a chunked blob and returns its hash.
+     * The file is read once: it is split into chunks as it is read, and each chunk
+     * is hashed and stored unless an earlier version of some file already stored it.
+     * So storing a new version of a large file only writes the chunks around the edits.
+     * @param file
+     * @return hash of the file contents
+     */
+    private String writeChunked(File file) {
+        MessageDigest md = newSha1();
+        Codec chunkList = new Codec(CHUNK_LIST_TYPE, CHUNK_LIST_VERSION);
+        List<String> chunks = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        byte[] buffer = new byte[4 * Chunker.MAX_SIZE];
+        int start = 0;
+        int end = 0;
+        boolean eof = false;
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (true) {
+                // Keep at least one largest chunk in the buffer until the end of the file.
+                if (!eof && end - start < Chunker.MAX_SIZE) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    start = 0;
+                    ByteBuffer free = ByteBuffer.wrap(buffer, end, buffer.length - end);
+                    while (free.hasRemaining()) {
+                        if (in.read(free) < 0) {
+                            eof = true;
+                            break;
+                        }
+                    }
+                    end = free.position();
+                }
+                if (start == end) {
+                    break;
+                }
+                int length = Chunker.cut(buffer, start, end - start);
+                md.update(buffer, start, length);
+                byte[] chunk = Arrays.copyOfRange(buffer, start, start + length);
+                String chunkHash = sha1(chunk);
+                write(chunkHash, chunk);
+                chunks.add(chunkHash);
+                lengths.add(length);
+                start += length;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+
+        String hash = toHex(md.digest());
+        if (contains(hash)) {
+            return hash;
+        }
+        chunkList.writeVarint(chunks.size());
+        for (int i = 0; i < chunks.size(); i += 1) {
+            chunkList.writeHash(chunks.get(i));
+            chunkList.writeVarint(lengths.get(i));
+        }
+        byte[] encoded = chunkList.toByteArray();
+        byte[] stored = new byte[encoded.length + 1];
+        stored[0] = CHUNKED;
+        System.arraycopy(encoded, 0, stored, 1, encoded.length);
+        File loose = looseFile(hash);
+        loose.getParentFile().mkdir();
+        writeContents(loose, stored);
+        return hash;
+    }
+
+    /**
+     * Gets the chunks of a chunked blob.
+     * @param stored the stored bytes of the blob
+     * @return the hashes of its chunks in order
+     */
+    static List<String> readChunkList(byte[] stored) {
+        Codec codec = new Codec(Arrays.copyOfRange(stored, 1, stored.length));
+        codec.readHeader(CHUNK_LIST_TYPE, CHUNK_LIST_VERSION);
+        int count = codec.readLength();
+        List<String> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i += 1) {
+            chunks.add(codec.readHash());
+            codec.readVarint();
+        }
+        return chunks;
+    }
+
+    /** Reads the chunk CHUNK, which must be stored. */
+    private byte[] readChunk(String chunk) {
+        byte[] contents = read(chunk);
+        if (contents == null) {
+            throw error("Missing chunk %s", chunk);
+        }
+        return contents;
+    }
+
+    /**
+     * Checks whether the stored bytes of an object are the chunk list of a chunked blob.
+     * @param stored
+     * @return true if the object is chunked
+     */
+    static boolean isChunked(byte[] stored) {
+        return stored.length >= 3 && stored[0] == CHUNKED
+                && stored[1] == CHUNK_LIST_TYPE && stored[2] == CHUNK_LIST_VERSION;
+    }
+
+    /**
+     * Opens a stream that writes the header byte and then deflates
+     * everything written to it into the given file.
+     * @param file
+     * @return the stream
+     */
+    static OutputStream deflate(File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()), BUFFER_SIZE);
+        out.write(COMPRESSED);
+        return new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED), BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                Metrics.count(Metrics.FILES_WRITTEN);
+                Metrics.count(Metrics.BYTES_WRITTEN, 1 + def.getBytesWritten());
+                def.end();
+            }
+        };
+    }
+
+    /**
+     * Opens a stream that inflates the stored bytes of a compressed object.
+     * @param stored
+     * @return the stream
+     */
+    static InputStream inflate(byte[] stored) {
+        return inflate(new ByteArrayInputStream(stored, 1, stored.length - 1));
+    }
+
+    /**
+     * Opens a stream that inflates a zlib stream, such as a compressed object
+     * after its header byte.
+     * @param in
+     * @return the stream
+     */
+    static InputStream inflate(InputStream in) {
+        return new InflaterInputStream(in, new Inflater(), BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inf.end();
+            }
+        };
+    }
+
+    /**
+     * Checks whether the stored bytes of an object start with the header
+     * byte followed by a valid zlib header.
+     * @param stored
+     * @return true if the object is compressed
+     */
+    static boolean isCompressed(byte[] stored) {
+        if (stored.length < 3 || stored[0] != COMPRESSED) {
+            return false;
+        }
+        int cmf = stored[1] & 0xff;
+        int flg = stored[2] & 0xff;
+        return (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    /**
+     * Deletes the loose file of the object with the given hash.
+     * Packed objects are never deleted, since the pack is append-only.
+     * @param hash
+     */
+    public void delete(String hash) {
+        // Just delete the file, do not delete the folder!
+        looseFile(hash).delete();
+    }
+
+    /**
+     * Lists the hashes of all loose objects.
+     * @return list of hashes
+     */
+    public List<String> looseObjects() {
+        List<String> hashes = new ArrayList<>();
+        File[] fanOut = directory.listFiles((dir, name) -> name.length() == 2);
+        if (fanOut == null) {
+            return hashes;
+        }
+        for (File dir : fanOut) {
+            List<String> names = plainFilenamesIn(dir);
+            for (String name : names) {
+                if (name.length() == UID_LENGTH - 2) {
+                    hashes.add(dir.getName() + name);
+                }
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Moves all loose objects into the pack.
+     * Versions of the same file are usually small edits of each other, so a blob
+     * is stored as a delta against the next newer version of its file when that is
+     * much smaller than the blob itself. The newest versions, which are read most,
+     * are stored whole, and no chain of deltas is longer than MAX_DELTA_DEPTH.
+     * Every base is stored whole or as a delta decided before it, so there are no cycles.
+     * The loose files are only deleted after the new pack index is in place.
+     * @param histories the blobs of each file in the order they were committed
+     * @return the number of objects packed
+     */
+    public int repack(List<List<String>> histories) {
+        List<String> loose = looseObjects();
+        Set<String> toPack = new HashSet<>(loose);
+        Map<String, Integer> depths = new HashMap<>();
+        Map<String, String> bases = new HashMap<>();
+        for (List<String> history : histories) {
+            for (int i = history.size() - 1; i >= 0; i -= 1) {
+                String hash = history.get(i);
+                if (!toPack.contains(hash) || depths.containsKey(hash)) {
+                    continue;
+                }
+                depths.put(hash, 0);
+                if (i + 1 == history.size()) {
+                    continue;
+                }
+                String base = history.get(i + 1);
+                int baseDepth = deltaDepth(base, depths);
+                if (baseDepth >= 0 && baseDepth < MAX_DELTA_DEPTH) {
+                    bases.put(hash, base);
+                    depths.put(hash, baseDepth + 1);
+                }
+            }
+        }
+
+        // Records are copied as they are stored, so packed objects stay compressed.
+        int packed = pack.append(loose, hash -> {
+            byte[] stored = readContents(looseFile(hash));
+            String base = bases.get(hash);
+            return base == null ? stored : deltaRecord(stored, hash, base);
+        });
+        for (String hash : loose) {
+            File file = looseFile(hash);
+            file.delete();
+            File dir = file.getParentFile();
+            String[] rest = dir.list();
+            if (rest != null && rest.length == 0) {
+                dir.delete();
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * Copies objects into the pack of another store, in one append to its pack.
+     * Records are copied as they are stored, so compressed objects and deltas are
+     * not rebuilt, except that a delta whose base the other store will not have
+     * in its pack is sent whole.
+     * @param target the store to copy to
+     * @param hashes the objects to copy, all of which this store has
+     * @return the number of objects the target did not have in its pack
+     */
+    public int sendTo(ObjectStore target, List<String> hashes) {
+        Set<String> sent = new HashSet<>(hashes);
+        return target.pack.append(hashes, hash -> {
+            byte[] stored = readStored(hash);
+            if (stored == null) {
+                throw error("Missing object %s", hash);
+            }
+            if (isDelta(stored)) {
+                String base = deltaBase(stored);
+                if (!sent.contains(base) && !target.pack.contains(base)) {
+                    return compress(read(hash));
+                }
+            }
+            return stored;
+        });
+    }
+
+    /**
+     * Deflates the contents of an object behind the header byte, as a loose object is stored.
+     * @param contents
+     * @return the stored bytes
+     */
+    static byte[] compress(byte[] contents) {
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        stored.write(COMPRESSED);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (OutputStream out = new DeflaterOutputStream(stored, deflater)) {
+            out.write(contents);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+        return stored.toByteArray();
+    }
+
+    /**
+     * Gets the length of the delta chain an object is at the end of.
+     * @param hash
+     * @param depths depths of the objects already decided during this repack
+     * @return 0 for an object stored whole, or -1 if the object cannot be a base
+     */
+    private int deltaDepth(String hash, Map<String, Integer> depths) {
+        Integer depth = depths.get(hash);
+        if (depth != null) {
+            return depth;
+        }
+        byte[] stored = pack.read(hash);
+        if (stored == null || isChunked(stored)) {
+            return -1;
+        }
+        if (!isDelta(stored)) {
+            return 0;
+        }
+        int baseDepth = deltaDepth(deltaBase(stored), depths);
+        return baseDepth < 0 ? -1 : baseDepth + 1;
+    }
+
+    /**
+     * Builds the pack record of an object as a delta against a base.
+     * @param stored the object as it is stored loose
+     * @param hash
+     * @param base hash of the base
+     * @return the delta record, or STORED if the delta would not save much
+     */
+    private byte[] deltaRecord(byte[] stored, String hash, String base) {
+        if (isChunked(stored)) {
+            return stored;
+        }
+        byte[] delta = Delta.encode(read(base), read(hash));
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        record.write(DELTA);
+        record.writeBytes(fromHex(base));
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (OutputStream out = new DeflaterOutputStream(record, deflater)) {
+            out.write(delta);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+        // Keep the delta only if it is at most three quarters of the object.
+        if (4L * record.size() > 3L * stored.length) {
+            return stored;
+        }
+        return record.toByteArray();
+    }
+
+    /**
+     * Rebuilds an object stored as a delta, reading its base through the cache
+     * of recently rebuilt objects.
+     */
+    private byte[] readDelta(String hash, byte[] stored) {
+        byte[] contents = deltaBases.get(hash);
+        if (contents != null) {
+            return contents;
+        }
+        String base = deltaBase(stored);
+        byte[] baseContents = deltaBases.get(base);
+        if (baseContents == null) {
+            baseContents = read(base);
+            if (baseContents == null) {
+                throw error("Missing delta base %s", base);
+            }
+            deltaBases.put(base, baseContents);
+        }
+        try (InputStream in = inflate(new ByteArrayInputStream(
+                stored, 1 + Pack.HASH_BYTES, stored.length - 1 - Pack.HASH_BYTES))) {
+            contents = Delta.apply(baseContents, in.readAllBytes());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        deltaBases.put(hash, contents);
+        return contents;
+    }
+
+    /** Returns the hash of the base of the delta record STORED. */
+    private static String deltaBase(byte[] stored) {
+        return toHex(Arrays.copyOfRange(stored, 1, 1 + Pack.HASH_BYTES));
+    }
+
+    /**
+     * Checks whether the stored bytes of an object are a delta record:
+     * the header byte, the hash of the base, and a valid zlib header.
+     * @param stored
+     * @return true if the object is stored as a delta
+     */
+    static boolean isDelta(byte[] stored) {
+        int zlib = 1 + Pack.HASH_BYTES;
+        if (stored.length < zlib + 2 || stored[0] != DELTA) {
+            return false;
+        }
+        int cmf = stored[zlib] & 0xff;
+        int flg = stored[zlib + 1] & 0xff;
+        return (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+    }
+}
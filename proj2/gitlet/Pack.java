@@ -0,0 +1,407 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents a packfile of gitlet objects.
+ * A pack is made up of two files: the pack itself, which is an append-only
+ * sequence of object records, and its index, which maps the 20-byte SHA-1 of
+ * every object in the pack to the offset and length of its record.
+ * The index is sorted by hash and memory-mapped, so looking up an object is
+ * a binary search over the mapped file instead of a walk of the fan-out directories.
+ *
+ * Layout of the index file:
+ *   magic, version                     two ints
+ *   fan-out table                      256 ints, entry b is the number of hashes
+ *                                      whose first byte is at most b
+ *   hashes                             N * 20 bytes, sorted
+ *   offsets                            N longs, offset of each record in the pack
+ *   lengths                            N ints, length of each record
+ * @author Ziqi He
+ */
+public class Pack {
+    /** Magic number at the start of the pack file ("GPCK"). */
+    private static final int PACK_MAGIC = 0x4750434b;
+
+    /** Magic number at the start of the index file ("GIDX"). */
+    private static final int INDEX_MAGIC = 0x47494458;
+
+    /** Version of the pack and index formats. */
+    private static final int VERSION = 1;
+
+    /** Length of a raw SHA-1 hash in bytes. */
+    static final int HASH_BYTES = UID_LENGTH / 2;
+
+    /** Size of the pack and index headers in bytes. */
+    private static final int HEADER_SIZE = 8;
+
+    /** Size of the fan-out table in bytes. */
+    private static final int FANOUT_SIZE = 256 * 4;
+
+    /** The pack file. */
+    private final File packFile;
+
+    /** The index file of the pack. */
+    private final File indexFile;
+
+    /** The mapped index, or null if it has not been mapped yet. */
+    private MappedByteBuffer index;
+
+    /** Number of objects in the mapped index. */
+    private int size;
+
+    /** The open pack file, or null if it has not been opened yet. */
+    private FileChannel pack;
+
+    /**
+     * Constructor of Pack.
+     * @param directory the directory holding the pack and its index
+     */
+    public Pack(File directory) {
+        this.packFile = join(directory, "pack.pack");
+        this.indexFile = join(directory, "pack.idx");
+    }
+
+    /**
+     * Checks whether this pack exists on disk.
+     * @return true if the index of the pack exists
+     */
+    public boolean exists() {
+        return indexFile.isFile();
+    }
+
+    /**
+     * Gets the number of objects in the pack.
+     * @return number of objects
+     */
+    public int size() {
+        return mapIndex() ? size : 0;
+    }
+
+    /**
+     * Finds the position of the object with the given hash in the index.
+     * @param hash hexadecimal hash of the object
+     * @return the position in the index, or -1 if the object is not in the pack
+     */
+    public int find(String hash) {
+        if (!mapIndex()) {
+            return -1;
+        }
+        byte[] key = fromHex(hash);
+        int first = key[0] & 0xff;
+        int low = first == 0 ? 0 : index.getInt(HEADER_SIZE + 4 * (first - 1));
+        int high = index.getInt(HEADER_SIZE + 4 * first) - 1;
+        byte[] probe = new byte[HASH_BYTES];
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            index.get(hashOffset(mid), probe);
+            int cmp = Arrays.compareUnsigned(probe, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the objects whose hashes start with the given prefix.
+     * The hashes are sorted, so the first match is found by binary search
+     * and the rest follow it.
+     * @param prefix lowercase hexadecimal prefix of at least two characters
+     * @return the hashes of the matching objects
+     */
+    public List<String> findByPrefix(String prefix) {
+        List<String> found = new ArrayList<>();
+        if (!mapIndex()) {
+            return found;
+        }
+        StringBuilder padded = new StringBuilder(prefix);
+        while (padded.length() < UID_LENGTH) {
+            padded.append('0');
+        }
+        byte[] key = fromHex(padded.toString());
+        int first = key[0] & 0xff;
+        int low = first == 0 ? 0 : index.getInt(HEADER_SIZE + 4 * (first - 1));
+        int high = index.getInt(HEADER_SIZE + 4 * first);
+        byte[] probe = new byte[HASH_BYTES];
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            index.get(hashOffset(mid), probe);
+            if (Arrays.compareUnsigned(probe, key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int position = low; position < size; position += 1) {
+            String hash = hashAt(position);
+            if (!hash.startsWith(prefix)) {
+                break;
+            }
+            found.add(hash);
+        }
+        return found;
+    }
+
+    /**
+     * Checks whether the object with the given hash is in the pack.
+     * @param hash
+     * @return true if the pack contains the object
+     */
+    public boolean contains(String hash) {
+        return find(hash) >= 0;
+    }
+
+    /**
+     * Gets the hash of the object at the given position of the index.
+     * @param position
+     * @return hexadecimal hash
+     */
+    public String hashAt(int position) {
+        mapIndex();
+        byte[] hash = new byte[HASH_BYTES];
+        index.get(hashOffset(position), hash);
+        return toHex(hash);
+    }
+
+    /**
+     * Reads the record of the object with the given hash.
+     * @param hash
+     * @return contents of the record, or null if the object is not in the pack
+     */
+    public byte[] read(String hash) {
+        int position = find(hash);
+        if (position < 0) {
+            return null;
+        }
+        return read(position);
+    }
+
+    /**
+     * Reads the record at the given position of the index.
+     * @param position
+     * @return contents of the record
+     */
+    public byte[] read(int position) {
+        long offset = index.getLong(offsetOffset(position));
+        int length = index.getInt(lengthOffset(position));
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            FileChannel channel = openPack();
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw error("Corrupt pack: %s", packFile);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Appends the given objects to the end of the pack and rewrites the index.
+     * Objects that are already in the pack, or earlier in HASHES, are skipped.
+     * The pack file stays locked from reading its size until the new index is in
+     * place, and the index is read again under the lock, so objects that another
+     * process appends at the same time are neither overwritten nor left out of the index.
+     * The new index is written to a lock file beside the old one, synced, and
+     * renamed over it, so neither readers nor a crash see a partially written index.
+     * @param hashes hashes of the objects to append
+     * @param source gives the record to store for each hash
+     * @return the number of objects appended
+     */
+    public synchronized int append(List<String> hashes, Function<String, byte[]> source) {
+        List<byte[]> newHashes = new ArrayList<>();
+        List<long[]> newLocations = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        try {
+            packFile.getParentFile().mkdirs();
+            try (FileChannel out = FileChannel.open(packFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                out.lock();
+                // The pack is only ever appended to, so only the index needs reading again.
+                index = null;
+                long end = out.size();
+                long offset = end;
+                if (offset == 0) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    header.putInt(PACK_MAGIC).putInt(VERSION).flip();
+                    offset += writeFully(out, header, offset);
+                }
+                for (String hash : hashes) {
+                    if (!seen.add(hash) || contains(hash)) {
+                        continue;
+                    }
+                    byte[] record = source.apply(hash);
+                    writeFully(out, ByteBuffer.wrap(record), offset);
+                    newHashes.add(fromHex(hash));
+                    newLocations.add(new long[]{offset, record.length});
+                    offset += record.length;
+                }
+                long start = System.nanoTime();
+                out.force(true);
+                Metrics.count(Metrics.FSYNCS);
+                Metrics.time(Metrics.FSYNC_NANOS, start);
+                Metrics.count(Metrics.FILES_WRITTEN);
+                Metrics.count(Metrics.BYTES_WRITTEN, out.size() - end);
+                if (!newHashes.isEmpty()) {
+                    writeIndex(newHashes, newLocations);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return newHashes.size();
+    }
+
+    /**
+     * Merges the entries of the current index with the given entries
+     * and replaces the index file with the result.
+     * Called with the pack file locked, after the index has been read again.
+     */
+    private void writeIndex(List<byte[]> newHashes, List<long[]> newLocations) {
+        int oldSize = size();
+        int total = oldSize + newHashes.size();
+        byte[][] hashes = new byte[total][];
+        long[][] locations = new long[total][];
+        for (int i = 0; i < oldSize; i += 1) {
+            hashes[i] = new byte[HASH_BYTES];
+            index.get(hashOffset(i), hashes[i]);
+            locations[i] = new long[]{index.getLong(offsetOffset(i)), index.getInt(lengthOffset(i))};
+        }
+        for (int i = 0; i < newHashes.size(); i += 1) {
+            hashes[oldSize + i] = newHashes.get(i);
+            locations[oldSize + i] = newLocations.get(i);
+        }
+        Integer[] order = new Integer[total];
+        for (int i = 0; i < total; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(hashes[a], hashes[b]));
+
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + FANOUT_SIZE + total * (HASH_BYTES + 12));
+        out.putInt(INDEX_MAGIC).putInt(VERSION);
+        int[] fanout = new int[256];
+        for (byte[] hash : hashes) {
+            fanout[hash[0] & 0xff] += 1;
+        }
+        int running = 0;
+        for (int count : fanout) {
+            running += count;
+            out.putInt(running);
+        }
+        for (int i : order) {
+            out.put(hashes[i]);
+        }
+        for (int i : order) {
+            out.putLong(locations[i][0]);
+        }
+        for (int i : order) {
+            out.putInt((int) locations[i][1]);
+        }
+
+        // Synced before it is renamed over the old index, since repack deletes
+        // the loose copies of the objects as soon as this returns.
+        LockFile lock = new LockFile(indexFile);
+        try {
+            lock.write(out.array());
+            LockFile.commitAll(List.of(lock));
+        } finally {
+            lock.rollback();
+        }
+        index = null;
+    }
+
+    /**
+     * Forgets the mapped index and closes the pack file, so both are read
+     * again on next use, in case another process has rewritten them.
+     */
+    public synchronized void refresh() {
+        index = null;
+        if (pack != null) {
+            try {
+                pack.close();
+            } catch (IOException excp) {
+                throw new IllegalArgumentException(excp.getMessage());
+            }
+            pack = null;
+        }
+    }
+
+    /**
+     * Opens the pack file for reading if it is not open yet.
+     * Reads are positional, so the channel is shared by all threads.
+     */
+    private synchronized FileChannel openPack() throws IOException {
+        if (pack == null) {
+            pack = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+        }
+        return pack;
+    }
+
+    /**
+     * Maps the index file into memory if it is not mapped yet.
+     * @return false if there is no index
+     */
+    private synchronized boolean mapIndex() {
+        if (index != null) {
+            return true;
+        }
+        if (!exists()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION) {
+            throw error("Corrupt pack index: %s", indexFile);
+        }
+        size = index.getInt(HEADER_SIZE + FANOUT_SIZE - 4);
+        return true;
+    }
+
+    /** Writes all of BUFFER to CHANNEL at POSITION and returns the number of bytes written. */
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    /** Returns the offset in the index of the hash at POSITION. */
+    private int hashOffset(int position) {
+        return HEADER_SIZE + FANOUT_SIZE + position * HASH_BYTES;
+    }
+
+    /** Returns the offset in the index of the record offset at POSITION. */
+    private int offsetOffset(int position) {
+        return HEADER_SIZE + FANOUT_SIZE + size * HASH_BYTES + position * 8;
+    }
+
+    /** Returns the offset in the index of the record length at POSITION. */
+    private int lengthOffset(int position) {
+        return HEADER_SIZE + FANOUT_SIZE + size * (HASH_BYTES + 8) + position * 4;
+    }
+}
@@ -0,0 +1,174 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * The packed-refs file: the head commits of many branches in one file,
+ * so a repository with thousands of branches does not need a file for each.
+ * A branch may also have a loose ref under refs/branches, which overrides
+ * its packed ref; the pack-refs command moves all loose refs in here.
+ *
+ * The file is a header line followed by one line per branch, sorted by name:
+ *   # gitlet packed-refs 1
+ *   [commit id] [branch name]
+ * Every line starts with a commit id of fixed length, so a branch is found by
+ * binary search over the bytes of the file: from a byte in the middle, back up
+ * to the start of its line and compare the name there.
+ * @author Ziqi He
+ */
+public class PackedRefs {
+    /** First line of the file. */
+    private static final String HEADER = "# gitlet packed-refs 1\n";
+
+    /** Offset of the branch name in a line, after the commit id and a space. */
+    private static final int NAME_OFFSET = UID_LENGTH + 1;
+
+    /** The packed-refs file. */
+    private final File file;
+
+    /** The mapped file, or null if it has not been mapped yet. */
+    private MappedByteBuffer refs;
+
+    /** Stat data of the file when it was mapped. */
+    private FileStat mapped;
+
+    /**
+     * Constructor of PackedRefs.
+     * @param file the packed-refs file
+     */
+    public PackedRefs(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Finds the head commit of a packed branch.
+     * @param branchName
+     * @return the commit id, or null if the branch is not packed
+     */
+    public String find(String branchName) {
+        if (!map()) {
+            return null;
+        }
+        int low = HEADER.length();
+        int high = refs.capacity();
+        while (low < high) {
+            int line = lineStart((low + high) >>> 1, low);
+            int end = lineEnd(line);
+            int cmp = readString(line + NAME_OFFSET, end).compareTo(branchName);
+            if (cmp == 0) {
+                return readString(line, line + UID_LENGTH);
+            } else if (cmp < 0) {
+                low = end + 1;
+            } else {
+                high = line;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads all the packed refs.
+     * @return the head commit of each packed branch, by name
+     */
+    public TreeMap<String, String> readAll() {
+        TreeMap<String, String> branches = new TreeMap<>();
+        if (!map()) {
+            return branches;
+        }
+        for (int line = HEADER.length(); line < refs.capacity(); line = lineEnd(line) + 1) {
+            branches.put(readString(line + NAME_OFFSET, lineEnd(line)),
+                    readString(line, line + UID_LENGTH));
+        }
+        return branches;
+    }
+
+    /**
+     * Replaces the packed refs through a lock file.
+     * The file is not replaced if another process has changed it since it was read here.
+     * @param branches the head commit of each branch, sorted by name
+     */
+    public void write(SortedMap<String, String> branches) {
+        StringBuilder contents = new StringBuilder(HEADER);
+        for (Map.Entry<String, String> branch : branches.entrySet()) {
+            contents.append(branch.getValue()).append(' ').append(branch.getKey()).append('\n');
+        }
+        LockFile lock = new LockFile(file);
+        try {
+            if (mapped != null && !mapped.matches(FileStat.of(file))) {
+                throw error("%s was changed by another gitlet process.", file.getName());
+            }
+            lock.write(contents.toString().getBytes(StandardCharsets.UTF_8));
+            LockFile.commitAll(List.of(lock));
+        } finally {
+            lock.rollback();
+        }
+        refresh();
+    }
+
+    /**
+     * Forgets the mapped file, so it is mapped again on next use,
+     * in case another process has rewritten it.
+     */
+    public void refresh() {
+        refs = null;
+        mapped = null;
+    }
+
+    /**
+     * Maps the file into memory if it is not mapped yet.
+     * @return false if there is no packed-refs file
+     */
+    private boolean map() {
+        if (refs != null) {
+            return true;
+        }
+        if (!file.isFile()) {
+            return false;
+        }
+        mapped = FileStat.of(file);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            refs = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (!readString(0, Math.min(HEADER.length(), refs.capacity())).equals(HEADER)) {
+            throw error("Corrupt packed-refs: %s", file);
+        }
+        return true;
+    }
+
+    /** Returns the start of the line holding byte POSITION, which is not before LOW. */
+    private int lineStart(int position, int low) {
+        while (position > low && refs.get(position - 1) != '\n') {
+            position -= 1;
+        }
+        return position;
+    }
+
+    /** Returns the position of the newline ending the line that starts at LINE. */
+    private int lineEnd(int line) {
+        int end = line + NAME_OFFSET;
+        while (refs.get(end) != '\n') {
+            end += 1;
+        }
+        return end;
+    }
+
+    /** Returns the bytes of the file in [START, END) as a string. */
+    private String readString(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        refs.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,257 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/**
+ * Handles command gitlet contains [blob id].
+ * Keeps, for the head commit of every branch at the last repack, a compressed
+ * bitmap of all the objects it can reach (its commits, their trees and blobs),
+ * indexed by their positions in the pack. Whether a branch's history ever had
+ * a version of a file is then one bit test, instead of reading every commit.
+ * Chunks and delta bases are not included: only file versions are asked about.
+ *
+ * The bitmaps are built by repack, which moves every object into the pack.
+ * Commits are visited in the order of the commit-graph, parents first, and the
+ * bitmap of a commit starts from the union of its parents' bitmaps, adding its
+ * own trees and blobs; a tree already in the bitmap is not read again, so only
+ * the trees a commit changed are read. A parent's bitmap is handed on to its
+ * last child rather than copied, so a line of history is built in one bitmap.
+ *
+ * Layout of the file:
+ *   type, version                      'R', 1
+ *   objects in the pack                varint, to tell a stale file
+ *   bitmaps                            varint count, then hash and bitmap of each commit
+ * @author Ziqi He
+ */
+public class ReachabilityBitmaps {
+    /** Type tag of the bitmap file. */
+    static final int TYPE = 'R';
+
+    /** Version of the bitmap file. */
+    static final int VERSION = 1;
+
+    /** The bitmap file, beside the pack. */
+    static final File FILE = join(Repository.OBJECTS, "pack", "pack.bitmap");
+
+    /**
+     * Builds and writes the bitmaps of the head commits of all branches.
+     * Every object they reach must be in the pack.
+     * @return the number of bitmaps written
+     */
+    public static int write() {
+        CommitGraph graph = Repository.COMMIT_GRAPH;
+        Pack pack = Repository.OBJECT_STORE.getPack();
+        Map<Integer, String> tips = new HashMap<>();
+        for (String branchName : Branch.listBranches()) {
+            String hashOfTip = Branch.getLastCommit(branchName);
+            tips.put(graph.add(hashOfTip), hashOfTip);
+        }
+
+        // Only the commits reachable from a tip are visited, and each parent's
+        // bitmap is kept until its last child has taken it.
+        BitSet reachable = new BitSet();
+        List<Integer> stack = new ArrayList<>(tips.keySet());
+        int[] children = new int[graph.size()];
+        while (!stack.isEmpty()) {
+            int position = stack.remove(stack.size() - 1);
+            if (reachable.get(position)) {
+                continue;
+            }
+            reachable.set(position);
+            for (int parent : parents(graph, position)) {
+                children[parent] += 1;
+                stack.add(parent);
+            }
+        }
+
+        RoaringBitmap[] bitmaps = new RoaringBitmap[graph.size()];
+        Codec codec = new Codec(TYPE, VERSION);
+        codec.writeVarint(pack.size());
+        codec.writeVarint(tips.size());
+        for (int position = reachable.nextSetBit(0); position >= 0;
+             position = reachable.nextSetBit(position + 1)) {
+            RoaringBitmap bitmap = null;
+            for (int parent : parents(graph, position)) {
+                children[parent] -= 1;
+                boolean lastUse = children[parent] == 0 && !tips.containsKey(parent);
+                if (bitmap == null) {
+                    bitmap = lastUse ? bitmaps[parent] : bitmaps[parent].copy();
+                } else {
+                    bitmap.or(bitmaps[parent]);
+                }
+                if (lastUse) {
+                    bitmaps[parent] = null;
+                }
+            }
+            if (bitmap == null) {
+                bitmap = new RoaringBitmap();
+            }
+            String hashOfCommit = graph.hashAt(position);
+            addObject(pack, bitmap, hashOfCommit);
+            Commit commit = Commit.readCommit(hashOfCommit);
+            if (commit.getStoredTree() != null) {
+                addTree(pack, bitmap, commit.getStoredTree());
+            } else {
+                for (String hashOfBlob : commit.getTrackedFiles().values()) {
+                    addObject(pack, bitmap, hashOfBlob);
+                }
+            }
+            bitmaps[position] = bitmap;
+            if (tips.containsKey(position)) {
+                codec.writeHash(hashOfCommit);
+                bitmap.write(codec);
+            }
+        }
+        writeContents(FILE, codec.toByteArray());
+        return tips.size();
+    }
+
+    /**
+     * Reads the bitmaps, if they were written for the pack as it is now.
+     * @return the bitmap of each commit that has one, by hash
+     */
+    public static Map<String, RoaringBitmap> read() {
+        Map<String, RoaringBitmap> bitmaps = new HashMap<>();
+        if (!FILE.isFile()) {
+            return bitmaps;
+        }
+        Codec codec = new Codec(readContents(FILE));
+        codec.readHeader(TYPE, VERSION);
+        if (codec.readLength() != Repository.OBJECT_STORE.getPack().size()) {
+            // Written before the pack last changed.
+            return bitmaps;
+        }
+        int count = codec.readLength();
+        for (int i = 0; i < count; i += 1) {
+            String hash = codec.readHash();
+            bitmaps.put(hash, RoaringBitmap.read(codec));
+        }
+        return bitmaps;
+    }
+
+    /**
+     * Resolves a whole or abbreviated object id.
+     * @param id
+     * @return the whole hash of the object
+     */
+    public static String resolve(String id) {
+        String prefix = id.toLowerCase();
+        if (prefix.length() < 2 || prefix.length() > UID_LENGTH || !prefix.matches("[0-9a-f]+")) {
+            throw error("No object with that id exists.");
+        }
+        List<String> found = Repository.OBJECT_STORE.findByPrefix(prefix);
+        if (found.isEmpty()) {
+            throw error("No object with that id exists.");
+        }
+        if (found.size() > 1) {
+            throw error("Object id %s is ambiguous.", id);
+        }
+        return found.get(0);
+    }
+
+    /**
+     * Finds the branches whose history has the given blob in some commit.
+     * A branch is walked back from its head over the commit-graph only until it
+     * reaches commits with bitmaps, which answer for all their ancestors; only
+     * the commits made since the last repack have their trees read.
+     * @param hashOfBlob
+     * @return the names of the branches, in order
+     */
+    public static List<String> branchesContaining(String hashOfBlob) {
+        CommitGraph graph = Repository.COMMIT_GRAPH;
+        int positionOfBlob = Repository.OBJECT_STORE.getPack().find(hashOfBlob);
+        Map<String, RoaringBitmap> bitmaps = read();
+        Map<String, Boolean> trees = new HashMap<>();
+        List<String> branches = new ArrayList<>();
+        for (String branchName : Branch.listBranches()) {
+            Set<Integer> seen = new HashSet<>();
+            List<Integer> stack = new ArrayList<>();
+            stack.add(graph.add(Branch.getLastCommit(branchName)));
+            boolean found = false;
+            while (!found && !stack.isEmpty()) {
+                int position = stack.remove(stack.size() - 1);
+                if (!seen.add(position)) {
+                    continue;
+                }
+                String hashOfCommit = graph.hashAt(position);
+                RoaringBitmap bitmap = bitmaps.get(hashOfCommit);
+                if (bitmap != null) {
+                    found = positionOfBlob >= 0 && bitmap.contains(positionOfBlob);
+                    continue;
+                }
+                Commit commit = Commit.readCommit(hashOfCommit);
+                found = commit.getStoredTree() != null
+                        ? treeContains(commit.getStoredTree(), hashOfBlob, trees)
+                        : commit.getTrackedFiles().containsValue(hashOfBlob);
+                stack.addAll(parents(graph, position));
+            }
+            if (found) {
+                branches.add(branchName);
+            }
+        }
+        return branches;
+    }
+
+    /** Checks whether the tree HASHOFTREE or a subtree names the blob, remembering the answers in TREES. */
+    private static boolean treeContains(String hashOfTree, String hashOfBlob, Map<String, Boolean> trees) {
+        Boolean known = trees.get(hashOfTree);
+        if (known != null) {
+            return known;
+        }
+        Tree tree = Tree.readTree(hashOfTree);
+        boolean found = tree.getBlobs().contains(hashOfBlob);
+        for (String hashOfSubtree : tree.getSubtrees()) {
+            if (found) {
+                break;
+            }
+            found = treeContains(hashOfSubtree, hashOfBlob, trees);
+        }
+        trees.put(hashOfTree, found);
+        return found;
+    }
+
+    /** Adds the tree HASHOFTREE and everything under it to BITMAP, skipping trees it already has. */
+    private static void addTree(Pack pack, RoaringBitmap bitmap, String hashOfTree) {
+        if (!addObject(pack, bitmap, hashOfTree)) {
+            return;
+        }
+        Tree tree = Tree.readTree(hashOfTree);
+        for (String hashOfBlob : tree.getBlobs()) {
+            addObject(pack, bitmap, hashOfBlob);
+        }
+        for (String hashOfSubtree : tree.getSubtrees()) {
+            addTree(pack, bitmap, hashOfSubtree);
+        }
+    }
+
+    /** Adds the object HASH to BITMAP, returning false if it was there already or is not packed. */
+    private static boolean addObject(Pack pack, RoaringBitmap bitmap, String hash) {
+        int position = pack.find(hash);
+        if (position < 0 || bitmap.contains(position)) {
+            return false;
+        }
+        bitmap.add(position);
+        return true;
+    }
+
+    /** Returns the positions of the parents of the commit at POSITION. */
+    private static List<Integer> parents(CommitGraph graph, int position) {
+        List<Integer> parents = new ArrayList<>(2);
+        for (int which = 0; which < 2; which += 1) {
+            int parent = graph.parent(position, which);
+            if (parent != CommitGraph.NONE && !parents.contains(parent)) {
+                parents.add(parent);
+            }
+        }
+        return parents;
+    }
+}
@@ -0,0 +1,233 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/**
+ * Handles commands gitlet add-remote, rm-remote, push, fetch and pull.
+ * A remote is another repository on the same file system, named by the path
+ * of its .gitlet directory. A branch fetched from remote R is kept as branch R/[branch name].
+ *
+ * Only the objects the receiving repository is missing are sent. The commits
+ * are found by walking back from the branch head until reaching commits the
+ * receiver has; from those commits, the trees and blobs the receiver's pack
+ * does not have are gathered, and everything is appended to the receiver's
+ * pack in one write, rather than copied file by file. Since the pack is then
+ * complete for everything sent, a packed object still only refers to packed objects.
+ * @author Ziqi He
+ */
+public class Remote {
+    /**
+     * Saves the path of a remote under the given name.
+     * @param remoteName
+     * @param path path of the remote's .gitlet directory, with / as the separator
+     */
+    public static void addRemote(String remoteName, String path) {
+        File remote = join(Repository.REMOTES, remoteName);
+        if (remote.exists()) {
+            throw error("A remote with that name already exists.");
+        }
+        Repository.REMOTES.mkdir();
+        writeContents(remote, path.replace("/", File.separator));
+    }
+
+    /**
+     * Forgets a remote. The branches fetched from it are kept.
+     * @param remoteName
+     */
+    public static void removeRemote(String remoteName) {
+        File remote = join(Repository.REMOTES, remoteName);
+        if (!remote.isFile()) {
+            throw error("A remote with that name does not exist.");
+        }
+        remote.delete();
+    }
+
+    /**
+     * Appends the commits of the current branch to a branch of a remote.
+     * The remote branch must be in the history of the current branch, and is
+     * created if it does not exist.
+     * @param remoteName
+     * @param branchName the branch of the remote
+     */
+    public static void push(String remoteName, String branchName) {
+        File remote = remoteDirectory(remoteName);
+        String hashOfHead = Branch.getLastCommit(Branch.getCurrentBranch());
+        String hashOfRemote = remoteHead(remote, branchName);
+        if (hashOfRemote != null) {
+            CommitGraph graph = Repository.COMMIT_GRAPH;
+            if (!Repository.OBJECT_STORE.contains(hashOfRemote)
+                    || !graph.isAncestor(graph.add(hashOfRemote), graph.add(hashOfHead))) {
+                throw error("Please pull down remote changes before pushing.");
+            }
+        }
+
+        transfer(Repository.OBJECT_STORE, new ObjectStore(join(remote, "objects")), hashOfHead);
+        // Any commits missing from the remote's graph are read here, where they all are too.
+        // A remote without a graph builds its own, with all its commits, when it next needs one.
+        File remoteGraph = join(remote, "commit-graph");
+        if (remoteGraph.isFile()) {
+            new CommitGraph(remoteGraph).add(hashOfHead);
+        }
+        LockFile lock = new LockFile(join(remote, "refs", "branches", branchName));
+        try {
+            lock.write(hashOfHead.getBytes(StandardCharsets.UTF_8));
+            LockFile.commitAll(List.of(lock));
+        } finally {
+            lock.rollback();
+        }
+    }
+
+    /**
+     * Copies the commits of a branch of a remote into this repository,
+     * as the branch [remote name]/[branch name].
+     * @param remoteName
+     * @param branchName the branch of the remote
+     */
+    public static void fetch(String remoteName, String branchName) {
+        File remote = remoteDirectory(remoteName);
+        String hashOfRemote = remoteHead(remote, branchName);
+        if (hashOfRemote == null) {
+            throw error("That remote does not have that branch.");
+        }
+
+        transfer(new ObjectStore(join(remote, "objects")), Repository.OBJECT_STORE, hashOfRemote);
+        Repository.COMMIT_GRAPH.add(hashOfRemote);
+        File ref = Branch.refFile(remoteName + "/" + branchName);
+        ref.getParentFile().mkdirs();
+        ObjectCache.writeRef(ref, hashOfRemote);
+    }
+
+    /**
+     * Fetches a branch of a remote and merges it into the current branch.
+     * @param remoteName
+     * @param branchName the branch of the remote
+     */
+    public static void pull(String remoteName, String branchName) {
+        fetch(remoteName, branchName);
+        Merge.merge(remoteName + "/" + branchName);
+    }
+
+    /** Returns the .gitlet directory of the remote REMOTENAME, which must exist. */
+    private static File remoteDirectory(String remoteName) {
+        File remote = join(Repository.REMOTES, remoteName);
+        if (!remote.isFile()) {
+            throw error("A remote with that name does not exist.");
+        }
+        File directory = new File(readContentsAsString(remote));
+        if (!directory.isAbsolute()) {
+            directory = join(Repository.CWD, directory.getPath());
+        }
+        if (!directory.isDirectory()) {
+            throw error("Remote directory not found.");
+        }
+        return directory;
+    }
+
+    /** Returns the head commit of branch BRANCHNAME of the repository REMOTE, or null. */
+    private static String remoteHead(File remote, String branchName) {
+        File ref = join(remote, "refs", "branches", branchName);
+        if (ref.isFile()) {
+            return readContentsAsString(ref);
+        }
+        return new PackedRefs(join(remote, "packed-refs")).find(branchName);
+    }
+
+    /**
+     * Sends the objects reachable from a commit that one store is missing to another.
+     * @param from the store that has the commit
+     * @param to the store to send to
+     * @param hashOfCommit
+     * @return the number of objects sent
+     */
+    static int transfer(ObjectStore from, ObjectStore to, String hashOfCommit) {
+        Set<String> objects = new LinkedHashSet<>();
+        for (String hash : missingCommits(from, to, hashOfCommit)) {
+            objects.add(hash);
+            Commit commit = Commit.fromBytes(read(from, hash));
+            if (commit.getStoredTree() != null) {
+                addTree(from, to, commit.getStoredTree(), objects);
+            } else {
+                // A commit written before trees lists its blobs itself.
+                for (String hashOfBlob : commit.getTrackedFiles().values()) {
+                    addBlob(from, to, hashOfBlob, objects);
+                }
+            }
+        }
+        return from.sendTo(to, new ArrayList<>(objects));
+    }
+
+    /**
+     * Lists the commits reachable from a commit that the receiving store does not have,
+     * walking back over the parents only until reaching commits it has.
+     */
+    private static List<String> missingCommits(ObjectStore from, ObjectStore to, String hashOfCommit) {
+        List<String> commits = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(hashOfCommit);
+        while (!pending.isEmpty()) {
+            String hash = pending.pop();
+            if (!seen.add(hash) || to.contains(hash)) {
+                continue;
+            }
+            commits.add(hash);
+            for (String parent : Commit.fromBytes(read(from, hash)).getParents()) {
+                pending.push(parent);
+            }
+        }
+        return commits;
+    }
+
+    /** Adds a tree and what it refers to, unless packed in TO, to OBJECTS. */
+    private static void addTree(ObjectStore from, ObjectStore to, String hashOfTree, Set<String> objects) {
+        if (objects.contains(hashOfTree) || to.getPack().contains(hashOfTree)) {
+            return;
+        }
+        objects.add(hashOfTree);
+        Tree tree = Tree.fromBytes(read(from, hashOfTree));
+        for (String hashOfBlob : tree.getBlobs()) {
+            addBlob(from, to, hashOfBlob, objects);
+        }
+        for (String hashOfSubtree : tree.getSubtrees()) {
+            addTree(from, to, hashOfSubtree, objects);
+        }
+    }
+
+    /** Adds a blob and, if it is chunked, its chunks, unless packed in TO, to OBJECTS. */
+    private static void addBlob(ObjectStore from, ObjectStore to, String hashOfBlob, Set<String> objects) {
+        if (objects.contains(hashOfBlob) || to.getPack().contains(hashOfBlob)) {
+            return;
+        }
+        objects.add(hashOfBlob);
+        byte[] stored = from.readStored(hashOfBlob);
+        if (stored == null) {
+            throw error("Missing object %s", hashOfBlob);
+        }
+        if (ObjectStore.isChunked(stored)) {
+            for (String chunk : ObjectStore.readChunkList(stored)) {
+                if (!to.getPack().contains(chunk)) {
+                    objects.add(chunk);
+                }
+            }
+        }
+    }
+
+    /** Reads the object HASH from STORE, which must have it. */
+    private static byte[] read(ObjectStore store, String hash) {
+        byte[] contents = store.read(hash);
+        if (contents == null) {
+            throw error("Missing object %s", hash);
+        }
+        return contents;
+    }
+}
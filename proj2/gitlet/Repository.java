@@ -1,6 +1,10 @@
 package gitlet;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static gitlet.Utils.*;
 
@@ -26,12 +30,27 @@ public class Repository {
     /** The directory to store branches. */
     public static final File BRANCHES = join(REFS, "branches");
 
+    /** The directory to store the branches fetched from remotes, one directory per remote. */
+    public static final File REMOTE_REFS = join(REFS, "remotes");
+
+    /** The directory to store the remotes, one file per remote holding its path. */
+    public static final File REMOTES = join(GITLET_DIR, "remotes");
+
     /** The Objects directory to store copies of file contents in working directory. */
     public static final File OBJECTS = join(GITLET_DIR, "objects");
 
     /** The file representing staging area of gitlet. */
     public static final File INDEX = join(GITLET_DIR, "index");
 
+    /** The object store backed by the Objects directory. */
+    public static final ObjectStore OBJECT_STORE = new ObjectStore(OBJECTS);
+
+    /** The commit-graph, caching the parents of every commit. */
+    public static final CommitGraph COMMIT_GRAPH = new CommitGraph(join(GITLET_DIR, "commit-graph"), true);
+
+    /** The packed refs of the branches. */
+    public static final PackedRefs PACKED_REFS = new PackedRefs(join(GITLET_DIR, "packed-refs"));
+
     /**
      * checks whether .gitlet directory exists
      * @return a boolean value of .gitlet directory existence
@@ -60,14 +79,14 @@ public class Repository {
         new Index();
 
         // create head pointer pointing to default branch master
-        writeContents(HEAD, "master");
+        Branch.setCurrentBranch("master");
 
         // create initial commit
         // the time of initial commit is Unix epoch time
         Commit initalCommit = new Commit(
-                "0000",
+                Commit.NO_PARENT,
                 Commit.getFormattedDate(0),
-                "default initial commit",
+                "initial commit",
                 true
         );
 
@@ -78,65 +97,132 @@ public class Repository {
         initalCommit.writeCommit();
     }
 
+    /**
+     * Converts a repository written with Java serialization to the binary formats.
+     * The index is rewritten, and so is every loose commit, keeping its name.
+     * Packed commits cannot be rewritten since the pack is append-only,
+     * but they stay readable because readers accept both formats.
+     * @return the number of commits converted
+     */
+    public static int migrate() {
+        Index.fromFile().writeIndex();
+        int migrated = 0;
+        for (String hash : OBJECT_STORE.looseObjects()) {
+            byte[] contents = OBJECT_STORE.read(hash);
+            if (!Codec.isSerialized(contents)) {
+                continue;
+            }
+            Commit commit;
+            try {
+                commit = deserialize(contents, Commit.class);
+            } catch (IllegalArgumentException excp) {
+                // A blob that happens to hold serialized data.
+                continue;
+            }
+            OBJECT_STORE.rewrite(hash, commit.toBytes());
+            migrated += 1;
+        }
+        return migrated;
+    }
+
+    /**
+     * Adds every stored commit the commit-graph does not have yet,
+     * including those no branch reaches, as after a graph was left incomplete.
+     * @return the number of commits in the graph
+     */
+    public static int writeCommitGraph() {
+        return COMMIT_GRAPH.addStoredCommits();
+    }
+
+    /**
+     * Moves all loose objects into the pack, storing versions of the same file
+     * as deltas against each other where that saves space.
+     * The history of each file is read from every commit in the commit-graph,
+     * which lists parents before their children.
+     * @return the number of objects packed
+     */
+    public static int repack() {
+        writeCommitGraph();
+        Map<String, List<String>> histories = new HashMap<>();
+        for (int position = 0; position < COMMIT_GRAPH.size(); position += 1) {
+            Commit commit = Commit.readCommit(COMMIT_GRAPH.hashAt(position));
+            for (Map.Entry<String, String> entry : commit.getTrackedFiles().entrySet()) {
+                List<String> history = histories.computeIfAbsent(entry.getKey(), k -> new ArrayList<>());
+                if (history.isEmpty() || !history.get(history.size() - 1).equals(entry.getValue())) {
+                    history.add(entry.getValue());
+                }
+            }
+        }
+        int packed = OBJECT_STORE.repack(new ArrayList<>(histories.values()));
+        ReachabilityBitmaps.write();
+        return packed;
+    }
+
     /**
      * Calculates the hash value of the file contents.
+     * The file is streamed through a fixed-size buffer rather than read into memory.
      * @param file
      * @return hash
      */
     public static String getHashOfFileContent(File file) {
-        byte[] blobContent = readContents(file);
-        return sha1(blobContent);
+        return sha1(file);
     }
 
     /**
      * Names the blob in correct way and puts it into the correct directory.
      * Inside the .gitlet/objects directory, the directory names are made by first two characters
      * of hash value of file contents(byte array). The rest of the hash is used as the name of the blob file.
+     * The file is hashed and stored in a single pass over its contents.
      * @param fileName
-     * @return a string array including the path of blob,
-     * the first element is the folder name(first two hash), the second is the file name (rest of hash).
+     * @return the hash value of the file contents
      */
-    public static void setBlob(String fileName) {
+    public static String setBlob(String fileName) {
         File f = join(CWD, fileName);
         if (!f.exists()) {
-            message("File does not exist.");
-            System.exit(0);
+            throw error("File does not exist.");
         }
+        return OBJECT_STORE.writeFile(f);
+    }
 
-        // Use byte array of file as blobContent.
-        byte[] blobContent = readContents(f);
-
-        // Calculate the hash of byte array.
-        String hash = getHashOfFileContent(f);
-
-        // First two characters as directory name.
-        // Rest of hash as file name.
-        String[] blobPath = getBlobPath(hash);
-        String firstTwoHash = blobPath[0];
-        String restOfHash = blobPath[1];
-
-        // Using the first two hash of blob to create a directory
-        // if it doesn't exist
-        File objectDirectory = join(OBJECTS, firstTwoHash);
-        if (!objectDirectory.exists()) {
-            objectDirectory.mkdir();
+    /**
+     * Reads the contents of the blob with the given hash.
+     * @param hashOfFile
+     * @return contents of the blob
+     */
+    public static byte[] readBlob(String hashOfFile) {
+        byte[] blobContent = OBJECT_STORE.read(hashOfFile);
+        if (blobContent == null) {
+            throw error("Missing object %s", hashOfFile);
         }
+        return blobContent;
+    }
 
-        // Using the rest of hash as file name
-        File blob = join(objectDirectory, restOfHash);
-        // Write the content into blob
-        writeContents(blob, blobContent);
+    /**
+     * Writes a working file, which may be inside a subdirectory,
+     * creating its directories if they do not exist.
+     * @param fileName path of the file relative to the working directory
+     * @param contents
+     */
+    public static void writeWorkingFile(String fileName, byte[] contents) {
+        File file = join(CWD, fileName);
+        file.getParentFile().mkdirs();
+        writeContents(file, contents);
     }
 
     /**
-     * Deletes the blob of given file.
-     * @param hashOfFile
+     * Deletes a working file, which may be inside a subdirectory,
+     * and then any of its directories that are left empty.
+     * @param fileName path of the file relative to the working directory
      */
-    public static void deleteBlob(String hashOfFile){
-        String[] blobPath = getBlobPath(hashOfFile);
-        // Just delete the file, do not delete the folder!
-        File blob = join(Repository.OBJECTS, blobPath[0], blobPath[1]);
-        blob.delete();
+    public static void deleteWorkingFile(String fileName) {
+        File file = join(CWD, fileName);
+        if (file.isDirectory() || !file.delete()) {
+            return;
+        }
+        File dir = file.getParentFile();
+        while (!dir.equals(CWD) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
     }
 
     /**
@@ -0,0 +1,242 @@
+package gitlet;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A compressed set of non-negative ints, in the manner of Roaring bitmaps.
+ * The ints are split by their high 16 bits into containers of 65536 values each.
+ * A container holding few values keeps them as a sorted array of their low
+ * 16 bits, and one holding more than ARRAY_LIMIT of them as a plain bitmap,
+ * so a container never takes more than 8 KiB and a sparse one much less.
+ * @author Ziqi He
+ */
+public class RoaringBitmap {
+    /** Largest number of values a container keeps as an array. */
+    private static final int ARRAY_LIMIT = 4096;
+
+    /** Number of longs in the bitmap of a container. */
+    private static final int BITMAP_WORDS = 65536 / 64;
+
+    /** Kind of an encoded container kept as an array. */
+    private static final int ARRAY = 0;
+
+    /** Kind of an encoded container kept as a bitmap. */
+    private static final int BITMAP = 1;
+
+    /** The containers, by the high 16 bits of their values. */
+    private final TreeMap<Integer, Container> containers = new TreeMap<>();
+
+    /**
+     * Adds a value.
+     * @param value a non-negative int
+     */
+    public void add(int value) {
+        containers.computeIfAbsent(value >>> 16, k -> new Container()).add(value & 0xffff);
+    }
+
+    /**
+     * Checks whether a value is in the set.
+     * @param value
+     * @return true if the value has been added
+     */
+    public boolean contains(int value) {
+        Container container = containers.get(value >>> 16);
+        return container != null && container.contains(value & 0xffff);
+    }
+
+    /**
+     * Adds all the values of another set.
+     * @param other
+     */
+    public void or(RoaringBitmap other) {
+        for (Map.Entry<Integer, Container> entry : other.containers.entrySet()) {
+            Container container = containers.get(entry.getKey());
+            if (container == null) {
+                containers.put(entry.getKey(), entry.getValue().copy());
+            } else {
+                container.or(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Copies this set.
+     * @return a set with the same values
+     */
+    public RoaringBitmap copy() {
+        RoaringBitmap copy = new RoaringBitmap();
+        for (Map.Entry<Integer, Container> entry : containers.entrySet()) {
+            copy.containers.put(entry.getKey(), entry.getValue().copy());
+        }
+        return copy;
+    }
+
+    /**
+     * Counts the values in the set.
+     * @return the number of values
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (Container container : containers.values()) {
+            cardinality += container.cardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * Encodes this set: the number of containers, then for each its key, its kind,
+     * and either its values as gaps from the previous one or its bitmap.
+     * @param codec
+     */
+    public void write(Codec codec) {
+        codec.writeVarint(containers.size());
+        for (Map.Entry<Integer, Container> entry : containers.entrySet()) {
+            codec.writeVarint(entry.getKey());
+            entry.getValue().write(codec);
+        }
+    }
+
+    /**
+     * Decodes a set.
+     * @param codec
+     * @return RoaringBitmap object
+     */
+    public static RoaringBitmap read(Codec codec) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        int count = codec.readLength();
+        for (int i = 0; i < count; i += 1) {
+            int key = codec.readLength();
+            bitmap.containers.put(key, Container.read(codec));
+        }
+        return bitmap;
+    }
+
+    /** The values of a set that share their high 16 bits, by their low 16 bits. */
+    private static class Container {
+        /** The values in increasing order while there are few, otherwise null. */
+        private char[] array = new char[4];
+
+        /** Number of values in the array. */
+        private int size;
+
+        /** The values as bits once there are many, otherwise null. */
+        private long[] bits;
+
+        void add(int low) {
+            if (bits != null) {
+                bits[low >>> 6] |= 1L << low;
+                return;
+            }
+            int index = Arrays.binarySearch(array, 0, size, (char) low);
+            if (index >= 0) {
+                return;
+            }
+            if (size == ARRAY_LIMIT) {
+                toBitmap();
+                add(low);
+                return;
+            }
+            index = -index - 1;
+            if (size == array.length) {
+                array = Arrays.copyOf(array, Math.min(ARRAY_LIMIT, size * 2));
+            }
+            System.arraycopy(array, index, array, index + 1, size - index);
+            array[index] = (char) low;
+            size += 1;
+        }
+
+        boolean contains(int low) {
+            if (bits != null) {
+                return (bits[low >>> 6] & (1L << low)) != 0;
+            }
+            return Arrays.binarySearch(array, 0, size, (char) low) >= 0;
+        }
+
+        void or(Container other) {
+            if (other.bits == null) {
+                for (int i = 0; i < other.size; i += 1) {
+                    add(other.array[i]);
+                }
+                return;
+            }
+            if (bits == null) {
+                toBitmap();
+            }
+            for (int i = 0; i < BITMAP_WORDS; i += 1) {
+                bits[i] |= other.bits[i];
+            }
+        }
+
+        Container copy() {
+            Container copy = new Container();
+            if (bits != null) {
+                copy.array = null;
+                copy.bits = bits.clone();
+            } else {
+                copy.array = Arrays.copyOf(array, Math.max(4, size));
+                copy.size = size;
+            }
+            return copy;
+        }
+
+        int cardinality() {
+            if (bits == null) {
+                return size;
+            }
+            int cardinality = 0;
+            for (long word : bits) {
+                cardinality += Long.bitCount(word);
+            }
+            return cardinality;
+        }
+
+        /** Moves the values from the array into a bitmap. */
+        private void toBitmap() {
+            bits = new long[BITMAP_WORDS];
+            for (int i = 0; i < size; i += 1) {
+                bits[array[i] >>> 6] |= 1L << array[i];
+            }
+            array = null;
+            size = 0;
+        }
+
+        void write(Codec codec) {
+            if (bits != null) {
+                codec.writeByte(BITMAP);
+                ByteBuffer buffer = ByteBuffer.allocate(BITMAP_WORDS * 8);
+                buffer.asLongBuffer().put(bits);
+                codec.writeBytes(buffer.array());
+                return;
+            }
+            codec.writeByte(ARRAY);
+            codec.writeVarint(size);
+            int previous = 0;
+            for (int i = 0; i < size; i += 1) {
+                codec.writeVarint(array[i] - previous);
+                previous = array[i];
+            }
+        }
+
+        static Container read(Codec codec) {
+            Container container = new Container();
+            if (codec.readByte() == BITMAP) {
+                container.array = null;
+                container.bits = new long[BITMAP_WORDS];
+                ByteBuffer.wrap(codec.readBytes(BITMAP_WORDS * 8)).asLongBuffer().get(container.bits);
+                return container;
+            }
+            int size = codec.readLength();
+            container.array = new char[Math.max(4, size)];
+            int value = 0;
+            for (int i = 0; i < size; i += 1) {
+                value += codec.readLength();
+                container.array[i] = (char) value;
+            }
+            container.size = size;
+            return container;
+        }
+    }
+}
@@ -10,8 +10,21 @@ import static gitlet.Utils.*;
  */
 public class Status {
     private Index index;
+
+    /** Files tracked in the head commit, mapped to their blob hashes. */
+    private Map<String, String> trackedFiles;
+
+    /** Every file in the working directory, mapped to its hash if it is tracked or staged. */
+    private Map<String, String> workingFiles;
+
     public Status() {
         index = Index.fromFile();
+        trackedFiles = Commit.readCommit(Branch.getLastCommit(Branch.getCurrentBranch()))
+                .getTrackedFiles();
+        Set<String> pathsToHash = new HashSet<>(trackedFiles.keySet());
+        pathsToHash.addAll(index.stagingArea.keySet());
+        workingFiles = WorkTree.scan(index, pathsToHash);
+
         System.out.println("=== Branches ===");
         printBranches();
         System.out.println("=== Staged Files ===");
@@ -22,6 +35,11 @@ public class Status {
         modificationNotStagedForCommit();
         System.out.println("=== Untracked Files ===");
         printUntrackedFiles();
+
+        // Keep the stat data of files that had to be hashed, if the index is free.
+        if (index.statCacheChanged) {
+            index.tryWriteIndex();
+        }
     }
 
     /**
@@ -29,13 +47,11 @@ public class Status {
      */
     public void printBranches() {
         String currentBranch = Branch.getCurrentBranch();
-        List<String> branches = new LinkedList<>(plainFilenamesIn(Repository.BRANCHES));
-        Collections.sort(branches);
-        branches.remove(currentBranch);
-
         System.out.println("*" + currentBranch);
-        for (String branch : branches) {
-            System.out.println(branch);
+        for (String branch : Branch.listBranches()) {
+            if (!branch.equals(currentBranch)) {
+                System.out.println(branch);
+            }
         }
         System.out.println(" ");
     }
@@ -79,6 +95,35 @@ public class Status {
      * or Not staged for removal, but tracked in the current commit and deleted from the working directory.
      */
     public void modificationNotStagedForCommit() {
+        Map<String, String> stagingArea = index.stagingArea;
+        List<String> removalArea = index.removalArea;
+        TreeMap<String, String> modifications = new TreeMap<>();
+
+        for (Map.Entry<String, String> entry : trackedFiles.entrySet()) {
+            String file = entry.getKey();
+            if (stagingArea.containsKey(file) || removalArea.contains(file)) {
+                continue;
+            }
+            String hashInWorkingDir = workingFiles.get(file);
+            if (hashInWorkingDir == null) {
+                modifications.put(file, "deleted");
+            } else if (!hashInWorkingDir.equals(entry.getValue())) {
+                modifications.put(file, "modified");
+            }
+        }
+        for (Map.Entry<String, String> entry : stagingArea.entrySet()) {
+            String file = entry.getKey();
+            String hashInWorkingDir = workingFiles.get(file);
+            if (hashInWorkingDir == null) {
+                modifications.put(file, "deleted");
+            } else if (!hashInWorkingDir.equals(entry.getValue())) {
+                modifications.put(file, "modified");
+            }
+        }
+
+        for (Map.Entry<String, String> entry : modifications.entrySet()) {
+            System.out.println(entry.getKey() + " (" + entry.getValue() + ")");
+        }
         System.out.println(" ");
     }
 
@@ -86,9 +131,22 @@ public class Status {
      * The final category (“Untracked Files”) is for files present in the working directory
      * but neither staged for addition nor tracked.
      * This includes files that have been staged for removal, but then re-created without Gitlet’s knowledge.
-     * Ignore any subdirectories that may have been introduced, since Gitlet does not deal with them.
+     * Files in subdirectories are listed by their paths relative to the working directory.
      */
     public void printUntrackedFiles() {
+        List<String> untracked = new ArrayList<>();
+        for (String file : workingFiles.keySet()) {
+            if (index.stagingArea.containsKey(file)) {
+                continue;
+            }
+            if (!trackedFiles.containsKey(file) || index.removalArea.contains(file)) {
+                untracked.add(file);
+            }
+        }
+        Collections.sort(untracked);
+        for (String file : untracked) {
+            System.out.println(file);
+        }
         System.out.println(" ");
     }
 }
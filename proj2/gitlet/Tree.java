@@ -0,0 +1,243 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represents a gitlet tree object: the listing of one directory of a snapshot.
+ * Each entry names a blob (a file) or another tree (a subdirectory) by its hash,
+ * and a tree is itself named by the hash of its encoding. So two commits whose
+ * subdirectories are unchanged share the same tree objects, and a commit that
+ * changes one file only writes the trees on the path from the root to that file.
+ * @author Ziqi He
+ */
+public class Tree {
+    /** Type tag of the binary tree format. */
+    static final int TYPE = 'T';
+
+    /** Version of the binary tree format. */
+    static final int VERSION = 1;
+
+    /** Kind of an entry naming a blob. */
+    private static final int BLOB = 0;
+
+    /** Kind of an entry naming a tree. */
+    private static final int TREE = 1;
+
+    /** Names of the entries, mapped to their hashes, in sorted order. */
+    private final TreeMap<String, String> entries = new TreeMap<>();
+
+    /** Names of the entries that are subdirectories. */
+    private final Set<String> subtrees = new HashSet<>();
+
+    /**
+     * Encodes this tree: the number of entries, then for each entry in
+     * order of name its kind, its name and its raw hash.
+     * @return the encoded tree
+     */
+    public byte[] toBytes() {
+        Codec codec = new Codec(TYPE, VERSION);
+        codec.writeVarint(entries.size());
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            codec.writeByte(subtrees.contains(entry.getKey()) ? TREE : BLOB);
+            codec.writeString(entry.getKey());
+            codec.writeHash(entry.getValue());
+        }
+        return codec.toByteArray();
+    }
+
+    /**
+     * Decodes a tree.
+     * @param encoded
+     * @return Tree object
+     */
+    public static Tree fromBytes(byte[] encoded) {
+        Metrics.count(Metrics.OBJECTS_DECODED);
+        Codec codec = new Codec(encoded);
+        codec.readHeader(TYPE, VERSION);
+        Tree tree = new Tree();
+        int size = codec.readLength();
+        for (int i = 0; i < size; i += 1) {
+            int kind = codec.readByte();
+            String name = codec.readString();
+            tree.entries.put(name, codec.readHash());
+            if (kind == TREE) {
+                tree.subtrees.add(name);
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Reads the tree with the given hash from the object store.
+     * @param hashOfTree
+     * @return Tree object
+     */
+    public static Tree readTree(String hashOfTree) {
+        byte[] contents = Repository.OBJECT_STORE.read(hashOfTree);
+        if (contents == null) {
+            throw error("Missing tree %s", hashOfTree);
+        }
+        return fromBytes(contents);
+    }
+
+    /**
+     * Stores this tree in the object store. A tree that is already stored,
+     * because an earlier commit has the same directory, is not written again.
+     * @return the hash of this tree
+     */
+    public String writeTree() {
+        byte[] contents = toBytes();
+        String hash = sha1(contents);
+        Repository.OBJECT_STORE.write(hash, contents);
+        return hash;
+    }
+
+    /**
+     * Gets the blobs this tree names directly, not those in its subtrees.
+     * @return the hashes of the blobs
+     */
+    public List<String> getBlobs() {
+        List<String> blobs = new ArrayList<>();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            if (!subtrees.contains(entry.getKey())) {
+                blobs.add(entry.getValue());
+            }
+        }
+        return blobs;
+    }
+
+    /**
+     * Gets the subtrees of this tree.
+     * @return the hashes of the subtrees
+     */
+    public List<String> getSubtrees() {
+        List<String> trees = new ArrayList<>();
+        for (String name : subtrees) {
+            trees.add(entries.get(name));
+        }
+        return trees;
+    }
+
+    /**
+     * Looks up the blob of a file.
+     * Only the trees on the path to the file are read.
+     * @param hashOfTree the root tree
+     * @param path path of the file, with "/" between directories
+     * @return the hash of the blob, or null if the file is not in the tree
+     */
+    public static String lookup(String hashOfTree, String path) {
+        Tree tree = readTree(hashOfTree);
+        int slash = path.indexOf('/');
+        while (slash >= 0) {
+            String dir = path.substring(0, slash);
+            if (!tree.subtrees.contains(dir)) {
+                return null;
+            }
+            tree = readTree(tree.entries.get(dir));
+            path = path.substring(slash + 1);
+            slash = path.indexOf('/');
+        }
+        return tree.subtrees.contains(path) ? null : tree.entries.get(path);
+    }
+
+    /**
+     * Lists every file in a tree and its subtrees.
+     * @param hashOfTree the root tree
+     * @return map from the path of each file to the hash of its blob
+     */
+    public static Map<String, String> flatten(String hashOfTree) {
+        Map<String, String> files = new HashMap<>();
+        flatten(hashOfTree, "", files);
+        return files;
+    }
+
+    /** Adds the files of the tree HASHOFTREE to FILES, prefixing their paths with PREFIX. */
+    private static void flatten(String hashOfTree, String prefix, Map<String, String> files) {
+        Tree tree = readTree(hashOfTree);
+        for (Map.Entry<String, String> entry : tree.entries.entrySet()) {
+            if (tree.subtrees.contains(entry.getKey())) {
+                flatten(entry.getValue(), prefix + entry.getKey() + "/", files);
+            } else {
+                files.put(prefix + entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Builds the trees of a snapshot and stores them.
+     * @param files map from the path of each file to the hash of its blob
+     * @return the hash of the root tree
+     */
+    public static String build(Map<String, String> files) {
+        return update(null, files);
+    }
+
+    /**
+     * Applies changes to a snapshot, writing new trees only for the directories
+     * that contain a change. Every other subtree keeps its hash and is shared
+     * with the base snapshot.
+     * @param base hash of the root tree to change, or null for an empty snapshot
+     * @param changes map from the path of each changed file to the hash of its new
+     *                blob, or to null if the file is removed
+     * @return the hash of the new root tree
+     */
+    public static String update(String base, Map<String, String> changes) {
+        return update(base, changes, true);
+    }
+
+    /** Applies CHANGES to the tree BASE as in update(BASE, CHANGES), except that
+     *  a tree other than the ROOT which ends up empty is not written, and null is returned. */
+    private static String update(String base, Map<String, String> changes, boolean root) {
+        Tree tree = base == null ? new Tree() : readTree(base);
+
+        // Changes below a subdirectory are handed down to that subdirectory's tree.
+        Map<String, Map<String, String>> changesBelow = new HashMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                tree.subtrees.remove(path);
+                if (change.getValue() == null) {
+                    tree.entries.remove(path);
+                } else {
+                    tree.entries.put(path, change.getValue());
+                }
+            } else {
+                changesBelow.computeIfAbsent(path.substring(0, slash), k -> new HashMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+
+        for (Map.Entry<String, Map<String, String>> below : changesBelow.entrySet()) {
+            String dir = below.getKey();
+            // A file that replaces a directory of the same name is kept,
+            // and the files removed from under the directory go with it.
+            if (changes.get(dir) != null) {
+                continue;
+            }
+            String subtree = tree.subtrees.contains(dir) ? tree.entries.get(dir) : null;
+            String updated = update(subtree, below.getValue(), false);
+            if (updated == null) {
+                tree.entries.remove(dir);
+                tree.subtrees.remove(dir);
+            } else {
+                tree.entries.put(dir, updated);
+                tree.subtrees.add(dir);
+            }
+        }
+
+        // Empty subdirectories are dropped; only the root may be empty.
+        if (tree.entries.isEmpty() && !root) {
+            return null;
+        }
+        return tree.writeTree();
+    }
+}
@@ -0,0 +1,146 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Scans the working directory in parallel.
+ * Every directory is listed by its own fork-join task, and the files that need
+ * hashing are split across further tasks, so a large tree is hashed on all cores.
+ * Files whose stat data is unchanged since they were last hashed take their hash
+ * from the index's stat cache instead of being read.
+ * @author Ziqi He
+ */
+public class WorkTree {
+    /** Marks a working file that was not hashed. */
+    public static final String NOT_HASHED = "";
+
+    /** Largest number of files hashed by a single task. */
+    private static final int FILES_PER_TASK = 16;
+
+    /** The index whose stat cache is consulted. */
+    private final Index index;
+
+    /** Paths of the files whose hashes are wanted. */
+    private final Set<String> pathsToHash;
+
+    /** The path of every working file, mapped to its hash or NOT_HASHED. */
+    private final Map<String, String> files = new ConcurrentHashMap<>();
+
+    /** Stat data of the files that had to be hashed. */
+    private final Map<String, FileStat> refreshed = new ConcurrentHashMap<>();
+
+    /** Constructor */
+    private WorkTree(Index index, Set<String> pathsToHash) {
+        this.index = index;
+        this.pathsToHash = pathsToHash;
+    }
+
+    /**
+     * Scans the working directory.
+     * The stat cache of the given index is updated with the files that had to be
+     * hashed, but not saved; call writeIndex to keep it.
+     * @param index the index whose stat cache is used
+     * @param pathsToHash paths of the files whose hashes are needed, usually the
+     *                    files tracked in the head commit or staged for addition
+     * @return the path of every working file relative to the working directory,
+     * mapped to its hash if it is in pathsToHash and to NOT_HASHED otherwise
+     */
+    public static Map<String, String> scan(Index index, Set<String> pathsToHash) {
+        WorkTree tree = new WorkTree(index, pathsToHash);
+        ForkJoinPool.commonPool().invoke(tree.new ScanDirectory(Repository.CWD, ""));
+        if (!tree.refreshed.isEmpty()) {
+            index.statCache.putAll(tree.refreshed);
+            index.statCacheChanged = true;
+        }
+        return tree.files;
+    }
+
+    /** Lists one directory, forking a task for each subdirectory. */
+    private class ScanDirectory extends RecursiveAction {
+        /** The directory to list. */
+        private final File directory;
+
+        /** Path of the directory relative to the working directory, ending in "/". */
+        private final String prefix;
+
+        ScanDirectory(File directory, String prefix) {
+            this.directory = directory;
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected void compute() {
+            File[] entries = directory.listFiles();
+            if (entries == null) {
+                return;
+            }
+            List<RecursiveAction> tasks = new ArrayList<>();
+            List<String> toHash = new ArrayList<>();
+            for (File entry : entries) {
+                String path = prefix + entry.getName();
+                if (entry.isDirectory()) {
+                    if (!entry.equals(Repository.GITLET_DIR)) {
+                        tasks.add(new ScanDirectory(entry, path + "/"));
+                    }
+                } else if (pathsToHash.contains(path)) {
+                    toHash.add(path);
+                } else {
+                    files.put(path, NOT_HASHED);
+                }
+            }
+            if (!toHash.isEmpty()) {
+                tasks.add(new HashFiles(toHash, 0, toHash.size()));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    /** Hashes a range of files, splitting it in half until it is small. */
+    private class HashFiles extends RecursiveAction {
+        /** Paths of the files. */
+        private final List<String> paths;
+
+        /** Start of the range. */
+        private final int start;
+
+        /** End of the range (exclusive). */
+        private final int end;
+
+        HashFiles(List<String> paths, int start, int end) {
+            this.paths = paths;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > FILES_PER_TASK) {
+                int mid = (start + end) >>> 1;
+                invokeAll(new HashFiles(paths, start, mid), new HashFiles(paths, mid, end));
+                return;
+            }
+            for (int i = start; i < end; i += 1) {
+                String path = paths.get(i);
+                File file = Utils.join(Repository.CWD, path);
+                // The stat cache is only read here; new entries are merged after the scan.
+                String hash = index.getCachedHash(path, file);
+                if (hash == null) {
+                    FileStat stat = FileStat.of(file);
+                    if (stat == null) {
+                        continue;
+                    }
+                    hash = Repository.getHashOfFileContent(file);
+                    refreshed.put(path, stat.withHash(hash));
+                }
+                files.put(path, hash);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package speed;
+
+import gitlet.Main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/** Measures the latency of gitlet commits in a loop, in one JVM, so that
+ *  what is timed is the work of each command and not JVM startup.
+ *  Every commit replaces the index and a branch through lock files that are
+ *  synced to disk; run again with -Dgitlet.fsync=false to see what the syncs cost.
+ *  Usage: java speed.CommitSpeedTest [N]
+ *  makes N commits, each of one changed file, in a new repository.
+ *  @author Ziqi He
+ */
+public class CommitSpeedTest {
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+
+        Path dir = Files.createTempDirectory("gitlet-commits");
+        // The repository is the working directory, which gitlet reads when it starts.
+        System.setProperty("user.dir", dir.toString());
+        try {
+            Main.run(new String[]{"init"});
+            Path file = dir.resolve("file.txt");
+            long[] addTimes = new long[n];
+            long[] commitTimes = new long[n];
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i += 1) {
+                Files.writeString(file, "version " + i + "\n");
+                long before = System.nanoTime();
+                Main.run(new String[]{"add", "file.txt"});
+                long added = System.nanoTime();
+                Main.run(new String[]{"commit", "commit " + i});
+                addTimes[i] = added - before;
+                commitTimes[i] = System.nanoTime() - added;
+            }
+            double total = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("%d commits in %.2f sec, fsync %s%n",
+                    n, total, System.getProperty("gitlet.fsync", "true"));
+            report("add", addTimes);
+            report("commit", commitTimes);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /** Prints the median and tail latency of TIMES, in nanoseconds. */
+    private static void report(String name, long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-7s median %.3f ms  p99 %.3f ms  max %.3f ms%n", name,
+                sorted[sorted.length / 2] / 1e6,
+                sorted[(int) (sorted.length * 0.99)] / 1e6,
+                sorted[sorted.length - 1] / 1e6);
+    }
+
+    /** Deletes DIR and everything under it. */
+    private static void delete(Path dir) throws IOException {
+        Files.walk(dir).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+}
@@ -0,0 +1,132 @@
+package speed;
+
+import gitlet.ObjectStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/** Compares bytes on disk and read throughput of the gitlet object store
+ *  with raw loose objects (the old format) and with deflated objects.
+ *  Usage: java speed.CompressionSpeedTest [N] [SIZE]
+ *  stores N text-like objects of about SIZE bytes each.
+ *  Reads are from a warm page cache; drop caches between runs for cold numbers.
+ *  @author Ziqi He
+ */
+public class CompressionSpeedTest {
+    /** Words used to build text-like object contents. */
+    private static final String[] WORDS = {
+        "public", "static", "void", "return", "String", "int", "for", "if",
+        "else", "new", "File", "commit", "index", "blob", "hash", "branch",
+        "{", "}", "(", ")", ";", "=", "+=", "this", "null", "true", "false"
+    };
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 16 * 1024;
+
+        List<byte[]> contents = new ArrayList<>();
+        List<String> hashes = new ArrayList<>();
+        Random random = new Random(61);
+        for (int i = 0; i < n; i += 1) {
+            byte[] content = randomText(random, size);
+            contents.add(content);
+            hashes.add(sha1(content));
+        }
+
+        Path rawDir = Files.createTempDirectory("gitlet-raw");
+        Path deflatedDir = Files.createTempDirectory("gitlet-deflated");
+        try {
+            ObjectStore raw = new ObjectStore(rawDir.toFile());
+            ObjectStore deflated = new ObjectStore(deflatedDir.toFile());
+
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i += 1) {
+                // The old format: file contents written as they are.
+                File loose = raw.looseFile(hashes.get(i));
+                loose.getParentFile().mkdir();
+                Files.write(loose.toPath(), contents.get(i));
+            }
+            double rawWrite = seconds(start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < n; i += 1) {
+                deflated.write(hashes.get(i), contents.get(i));
+            }
+            double deflatedWrite = seconds(start);
+
+            long logical = (long) n * size;
+            report("raw", logical, sizeOf(rawDir), rawWrite, timeReads(raw, hashes));
+            report("deflated", logical, sizeOf(deflatedDir), deflatedWrite, timeReads(deflated, hashes));
+        } finally {
+            delete(rawDir);
+            delete(deflatedDir);
+        }
+    }
+
+    /** Returns the seconds elapsed since START, a System.nanoTime value. */
+    private static double seconds(long start) {
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    /** Reads every object in HASHES from STORE and returns the seconds taken. */
+    private static double timeReads(ObjectStore store, List<String> hashes) {
+        long start = System.nanoTime();
+        long total = 0;
+        for (String hash : hashes) {
+            total += store.read(hash).length;
+        }
+        if (total == 0) {
+            throw new IllegalStateException("nothing read");
+        }
+        return seconds(start);
+    }
+
+    /** Prints one line of results. */
+    private static void report(String name, long logical, long onDisk, double write, double read) {
+        System.out.printf("%-9s %10d bytes on disk (%.2fx)  write %.2f sec  read %.2f sec (%.1f MB/s)%n",
+                name, onDisk, (double) logical / onDisk, write, read, logical / read / 1e6);
+    }
+
+    /** Returns SIZE bytes of source-code-like text. */
+    private static byte[] randomText(Random random, int size) {
+        StringBuilder text = new StringBuilder(size + 16);
+        while (text.length() < size) {
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+            text.append(random.nextInt(8) == 0 ? '\n' : ' ');
+        }
+        text.setLength(size);
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Returns the SHA-1 of CONTENT as a hexadecimal numeral. */
+    private static String sha1(byte[] content) {
+        try {
+            StringBuilder result = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(content)) {
+                result.append(String.format("%02x", b));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns the total size of the files under DIR. */
+    private static long sizeOf(Path dir) throws IOException {
+        return Files.walk(dir).filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+    }
+
+    /** Deletes DIR and everything under it. */
+    private static void delete(Path dir) throws IOException {
+        Files.walk(dir).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+}